@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.bench;
+
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.executor.impl.KMPFileSearchTaskExecutor;
+import org.aap.filesearcher.executor.impl.KMPFileSearchTaskExecutorNIO;
+import org.aap.filesearcher.executor.impl.NaiveFileSearchTaskExecutor;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Check of heap allocation per searched file by executors (measured with HotSpot per-thread allocation counter).
+ *
+ * <p>Scan buffers are pooled and reused by any thread, including per-file virtual threads of {@code -v} mode, so
+ * what is left per file is the file stream itself and the channel of NIO executor (a few hundred bytes). Logging
+ * is set to INFO as in {@code log4j.xml}: unconfigured log4j logs DEBUG and then formatting of debug messages (a few KB per file) is measured instead of the search. Fails with
+ * non-zero exit code if any executor allocates more than {@link #MAX_BYTES_PER_FILE}, which means a buffer is
+ * allocated per file again. Same numbers are reported by {@code FileSearchExecutorBenchmark} with {@code -prof gc}
+ * as {@code gc.alloc.rate.norm}.
+ */
+public class AllocationPerFileCheck {
+    private static final long MAX_BYTES_PER_FILE = 2048;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int WARMUP_ROUNDS = 20;
+
+    public static void main(String[] args) throws Exception {
+        Logger.getRootLogger().setLevel(Level.INFO);
+        final com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        final File corpusDirectory = File.createTempFile("filesearcher-bench", "");
+        if (!corpusDirectory.delete()) {
+            throw new IOException("Unable to create corpus directory");
+        }
+        boolean failed = false;
+        try {
+            new CorpusGenerator(CorpusGenerator.DEFAULT_SEED).setDepth(2).generate(corpusDirectory);
+            final List<FileSearchBean> files = new ArrayList<FileSearchBean>();
+            CorpusGenerator.collectFiles(corpusDirectory, files);
+
+            final byte[] pattern = "NEEDLE_0123456789".getBytes();
+            final TaskAcceptor<FileSearchBean> resultCollector = new TaskAcceptor<FileSearchBean>() {
+                @Override
+                public void push(FileSearchBean task) {
+                }
+
+                @Override
+                public void signalEndOfData() {
+                }
+            };
+            final Map<String, TaskExecutor<FileSearchBean>> executors = new LinkedHashMap<String, TaskExecutor<FileSearchBean>>();
+            executors.put("naive", new NaiveFileSearchTaskExecutor(pattern, resultCollector, BUFFER_SIZE));
+            executors.put("kmp", new KMPFileSearchTaskExecutor(pattern, resultCollector, BUFFER_SIZE));
+            executors.put("kmp-nio", new KMPFileSearchTaskExecutorNIO(pattern, resultCollector, BUFFER_SIZE));
+
+            for (Map.Entry<String, TaskExecutor<FileSearchBean>> entry : executors.entrySet()) {
+                final TaskExecutor<FileSearchBean> executor = entry.getValue();
+                for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                    for (FileSearchBean file : files) {
+                        executor.execute(file);
+                    }
+                }
+
+                final long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+                for (FileSearchBean file : files) {
+                    executor.execute(file);
+                }
+                final long bytesPerFile = (threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore) / files.size();
+
+                final boolean ok = bytesPerFile <= MAX_BYTES_PER_FILE;
+                System.out.printf("%-8s %6d bytes per file %s\n", entry.getKey(), bytesPerFile, ok ? "ok" : "FAILED");
+                failed |= !ok;
+            }
+        } finally {
+            CorpusGenerator.delete(corpusDirectory);
+        }
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.bench;
+
+import org.aap.filesearcher.FileListing;
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.executor.impl.BlockingTaskQueue;
+import org.aap.filesearcher.executor.impl.InodeOrderingTaskAcceptor;
+import org.aap.filesearcher.executor.impl.KMPFileSearchTaskExecutor;
+import org.aap.filesearcher.executor.impl.KMPFileSearchTaskExecutorDirect;
+import org.aap.filesearcher.executor.impl.KMPFileSearchTaskExecutorNIO;
+import org.aap.filesearcher.executor.impl.TaskRunner;
+import org.aap.filesearcher.util.ExecutorThread;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Whole search pipeline (listing, queue, executor threads) on cold page cache: files are searched in listing order
+ * and in inode order ({@link InodeOrderingTaskAcceptor}) with stream reads, with NIO reads into direct buffer
+ * ({@link KMPFileSearchTaskExecutorNIO}) and with direct I/O ({@link KMPFileSearchTaskExecutorDirect}). Growth of
+ * page cache ({@code Cached} of {@code /proc/meminfo}) during each run is reported next to throughput.
+ *
+ * <p>Page cache is dropped before each run by writing to {@code /proc/sys/vm/drop_caches}, so benchmark shall be
+ * run as root on Linux and the corpus shall be on the measured device (it's not JMH: cold runs can't be repeated
+ * within one iteration). Without root page cache is kept and warm numbers are reported with a warning. Modes are
+ * run in turns, so slow drift of the device affects all of them.
+ */
+public class ColdScanBenchmark {
+    private static final File DROP_CACHES = new File("/proc/sys/vm/drop_caches");
+    private static final File MEMINFO = new File("/proc/meminfo");
+    private static final String[] MODES = {"listing", "inode", "nio", "direct"};
+    private static final byte[] PATTERN = "NEEDLE_0123456789".getBytes();
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int BUFFER_SIZE = 8192;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("java ColdScanBenchmark <corpus dir> [threads] [rounds]");
+            return;
+        }
+        final File corpusDirectory = new File(args[0]);
+        final int threadsCount = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        if (!corpusDirectory.isDirectory()) {
+            final int count = new CorpusGenerator(CorpusGenerator.DEFAULT_SEED).setDepth(3).generate(corpusDirectory);
+            System.out.printf("%d files generated in %s\n", count, corpusDirectory);
+        }
+
+        final long[] totalMillis = new long[MODES.length];
+        final long[] totalCachedKb = new long[MODES.length];
+        long bytesScanned = 0;
+        boolean cold = true;
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < MODES.length; i++) {
+                cold &= dropCaches();
+                final AtomicLong bytes = new AtomicLong();
+                final long cachedBefore = cachedKb();
+                final long start = System.nanoTime();
+                scan(corpusDirectory, MODES[i], threadsCount, bytes);
+                final long millis = (System.nanoTime() - start) / 1000000;
+                final long cachedKb = cachedKb() - cachedBefore;
+                totalMillis[i] += millis;
+                totalCachedKb[i] += cachedKb;
+                bytesScanned = bytes.get();
+                System.out.printf("round %d %-8s %6d msec, page cache %+d KB\n", round, MODES[i], millis, cachedKb);
+            }
+        }
+
+        if (!cold) {
+            System.out.println("WARNING: page cache can't be dropped (run as root on Linux), results are warm");
+        }
+        for (int i = 0; i < MODES.length; i++) {
+            final long millis = totalMillis[i] / rounds;
+            System.out.printf("%-8s %6d msec %8.1f MB/s, page cache %+8.1f MB\n", MODES[i], millis,
+                    millis > 0 ? bytesScanned * 1000.0 / millis / (1024 * 1024) : 0.0,
+                    totalCachedKb[i] / 1024.0 / rounds);
+        }
+    }
+
+    private static void scan(File corpusDirectory, String mode, int threadsCount, final AtomicLong bytes)
+            throws InterruptedException {
+        final BlockingTaskQueue<FileSearchBean> taskQueue = new BlockingTaskQueue<FileSearchBean>(QUEUE_CAPACITY);
+        final TaskAcceptor<FileSearchBean> resultCollector = new TaskAcceptor<FileSearchBean>() {
+            @Override
+            public void push(FileSearchBean task) {
+            }
+
+            @Override
+            public void signalEndOfData() {
+            }
+        };
+        final TaskExecutor<FileSearchBean> searchExecutor;
+        if ("nio".equals(mode)) {
+            searchExecutor = new KMPFileSearchTaskExecutorNIO(PATTERN, resultCollector, BUFFER_SIZE);
+        } else if ("direct".equals(mode)) {
+            searchExecutor = new KMPFileSearchTaskExecutorDirect(PATTERN, resultCollector, BUFFER_SIZE, null);
+        } else {
+            searchExecutor = new KMPFileSearchTaskExecutor(PATTERN, resultCollector, BUFFER_SIZE);
+        }
+        final TaskExecutor<FileSearchBean> taskExecutor = new TaskExecutor<FileSearchBean>() {
+            @Override
+            public void execute(FileSearchBean task) throws Exception {
+                bytes.addAndGet(task.getInputFile().length());
+                searchExecutor.execute(task);
+            }
+        };
+
+        final List<ExecutorThread<FileSearchBean>> threads = new ArrayList<ExecutorThread<FileSearchBean>>();
+        for (int i = 0; i < threadsCount; i++) {
+            final ExecutorThread<FileSearchBean> t = new ExecutorThread<FileSearchBean>(
+                    new TaskRunner<FileSearchBean>(taskQueue, taskExecutor), "Executor #" + i);
+            t.start();
+            threads.add(t);
+        }
+
+        final TaskAcceptor<FileSearchBean> listingAcceptor = "inode".equals(mode)
+                ? new InodeOrderingTaskAcceptor(taskQueue, InodeOrderingTaskAcceptor.DEFAULT_WINDOW_SIZE)
+                : taskQueue;
+        new FileListing(corpusDirectory, listingAcceptor).run();
+        for (ExecutorThread<FileSearchBean> t : threads) {
+            t.join();
+        }
+    }
+
+    /**
+     * @return Size of page cache in KB or 0 if it's unknown
+     */
+    private static long cachedKb() {
+        try {
+            final BufferedReader reader = new BufferedReader(new FileReader(MEMINFO));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("Cached:")) {
+                        return Long.parseLong(line.substring("Cached:".length()).replace("kB", "").trim());
+                    }
+                }
+            } finally {
+                try {
+                    reader.close();
+                } catch(IOException ioe) { /* ignore silently */ }
+            }
+        } catch (IOException e) {
+            /* not Linux */
+        }
+        return 0;
+    }
+
+    /**
+     * @return true if page cache is dropped
+     */
+    private static boolean dropCaches() throws InterruptedException {
+        try {
+            Runtime.getRuntime().exec(new String[] {"sync"}).waitFor();
+            final FileOutputStream out = new FileOutputStream(DROP_CACHES);
+            try {
+                out.write('3');
+            } finally {
+                try {
+                    out.close();
+                } catch(IOException ioe) { /* ignore silently */ }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
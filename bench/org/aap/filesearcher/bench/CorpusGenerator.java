@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.bench;
+
+import org.aap.filesearcher.FileSearchBean;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic generator of synthetic file trees for benchmarks.
+ *
+ * <p>Tree shape, file sizes and content depend on the seed only, so the same corpus is produced on any box.
+ * Content is ASCII words separated by spaces and newlines; needle is inserted into every {@code needleEvery}-th file
+ * at pseudo-random position.
+ */
+public class CorpusGenerator {
+    public static final long DEFAULT_SEED = 20120101L;
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789_";
+
+    private final long seed;
+    private int depth = 3;
+    private int directoriesPerLevel = 4;
+    private int filesPerDirectory = 16;
+    private int minFileSize = 1024;
+    private int maxFileSize = 64 * 1024;
+    private int needleEvery = 10;
+    private byte[] needle = "NEEDLE_0123456789".getBytes();
+
+    public CorpusGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public CorpusGenerator setDepth(int depth) {
+        this.depth = depth;
+        return this;
+    }
+
+    public CorpusGenerator setDirectoriesPerLevel(int directoriesPerLevel) {
+        this.directoriesPerLevel = directoriesPerLevel;
+        return this;
+    }
+
+    public CorpusGenerator setFilesPerDirectory(int filesPerDirectory) {
+        this.filesPerDirectory = filesPerDirectory;
+        return this;
+    }
+
+    /**
+     * @param minFileSize Min file size in bytes
+     * @param maxFileSize Max file size in bytes (sizes are distributed log-uniformly)
+     */
+    public CorpusGenerator setFileSizes(int minFileSize, int maxFileSize) {
+        if (minFileSize <= 0 || maxFileSize < minFileSize) {
+            throw new IllegalArgumentException("Invalid file size range: " + minFileSize + ".." + maxFileSize);
+        }
+        this.minFileSize = minFileSize;
+        this.maxFileSize = maxFileSize;
+        return this;
+    }
+
+    /**
+     * @param needle Needle inserted into files
+     * @param needleEvery Needle is inserted into every n-th file (0 - never)
+     */
+    public CorpusGenerator setNeedle(byte[] needle, int needleEvery) {
+        this.needle = needle;
+        this.needleEvery = needleEvery;
+        return this;
+    }
+
+    /**
+     * Generate tree in the root directory (existing files with the same names are overwritten).
+     *
+     * @param rootDirectory Root directory
+     * @return Count of generated files
+     * @throws IOException if files can't be written
+     */
+    public int generate(File rootDirectory) throws IOException {
+        final Random random = new Random(seed);
+        return generate(rootDirectory, 0, random, new int[1]);
+    }
+
+    private int generate(File directory, int level, Random random, int[] fileCounter) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+
+        int count = 0;
+        for (int i = 0; i < filesPerDirectory; i++) {
+            writeFile(new File(directory, "f" + i + ".txt"), random, fileCounter[0]++);
+            count++;
+        }
+        if (level < depth) {
+            for (int i = 0; i < directoriesPerLevel; i++) {
+                count += generate(new File(directory, "d" + i), level + 1, random, fileCounter);
+            }
+        }
+        return count;
+    }
+
+    private void writeFile(File file, Random random, int fileNumber) throws IOException {
+        // Log-uniform size distribution: many small files and few big ones
+        final double logMin = Math.log(minFileSize);
+        final double logMax = Math.log(maxFileSize);
+        final int size = (int) Math.exp(logMin + random.nextDouble() * (logMax - logMin));
+
+        final byte[] content = new byte[size];
+        int wordLength = 0;
+        for (int i = 0; i < size; i++) {
+            if (wordLength > 2 && random.nextInt(8) == 0) {
+                content[i] = (byte) (random.nextInt(10) == 0 ? '\n' : ' ');
+                wordLength = 0;
+            } else {
+                content[i] = (byte) ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+                wordLength++;
+            }
+        }
+        if (needleEvery > 0 && fileNumber % needleEvery == 0 && needle.length <= size) {
+            System.arraycopy(needle, 0, content, random.nextInt(size - needle.length + 1), needle.length);
+        }
+
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            try {
+                out.close();
+            } catch (IOException ioe) { /* ignore silently */ }
+        }
+    }
+
+    /**
+     * Remove generated tree.
+     *
+     * @param file Root directory
+     */
+    public static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    /**
+     * Collect files of generated tree in path order.
+     *
+     * @param directory Root directory
+     * @param files Files
+     */
+    public static void collectFiles(File directory, List<FileSearchBean> files) {
+        final File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectFiles(child, files);
+            } else {
+                files.add(new FileSearchBean(child));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("java CorpusGenerator <root dir> [depth] [files per dir] [seed]");
+            return;
+        }
+        final CorpusGenerator generator = new CorpusGenerator(args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_SEED);
+        if (args.length > 1) {
+            generator.setDepth(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            generator.setFilesPerDirectory(Integer.parseInt(args[2]));
+        }
+        final int count = generator.generate(new File(args[0]));
+        System.out.printf("%d files generated in %s\n", count, args[0]);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.bench;
+
+import org.aap.filesearcher.FileListing;
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.Nio2FileListing;
+import org.aap.filesearcher.ParallelFileListing;
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Listing of synthetic tree (small files, so the tree is wide rather than heavy) by file listing implementations.
+ * Directory entries stay in the dentry cache between iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileListingBenchmark {
+    @Param({"classic", "nio2", "parallel", "parallel-nio2"})
+    public String listing;
+
+    @Param({"3", "4"})
+    public int depth;
+
+    private File corpusDirectory;
+    private int filesCount;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        corpusDirectory = File.createTempFile("filesearcher-bench", "");
+        if (!corpusDirectory.delete()) {
+            throw new IOException("Unable to create corpus directory");
+        }
+        filesCount = new CorpusGenerator(CorpusGenerator.DEFAULT_SEED)
+                .setDepth(depth)
+                .setDirectoriesPerLevel(6)
+                .setFilesPerDirectory(8)
+                .setFileSizes(16, 256)
+                .generate(corpusDirectory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        CorpusGenerator.delete(corpusDirectory);
+    }
+
+    @Benchmark
+    public long listTree() {
+        final AtomicLong listed = new AtomicLong();
+        final TaskAcceptor<FileSearchBean> counter = new TaskAcceptor<FileSearchBean>() {
+            @Override
+            public void push(FileSearchBean task) {
+                listed.incrementAndGet();
+            }
+
+            @Override
+            public void signalEndOfData() {
+            }
+        };
+
+        final Runnable fileListing;
+        if ("classic".equals(listing)) {
+            fileListing = new FileListing(corpusDirectory, counter);
+        } else if ("nio2".equals(listing)) {
+            fileListing = new Nio2FileListing(corpusDirectory, counter);
+        } else if ("parallel".equals(listing)) {
+            fileListing = new ParallelFileListing(corpusDirectory, counter, Runtime.getRuntime().availableProcessors(), false);
+        } else if ("parallel-nio2".equals(listing)) {
+            fileListing = new ParallelFileListing(corpusDirectory, counter, Runtime.getRuntime().availableProcessors(), true);
+        } else {
+            throw new IllegalArgumentException("Unknown listing: " + listing);
+        }
+        fileListing.run();
+
+        if (listed.get() != filesCount) {
+            throw new IllegalStateException("Listed " + listed.get() + " files of " + filesCount);
+        }
+        return listed.get();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.bench;
+
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.executor.impl.KMPFileSearchTaskExecutor;
+import org.aap.filesearcher.executor.impl.KMPFileSearchTaskExecutorNIO;
+import org.aap.filesearcher.executor.impl.NaiveFileSearchTaskExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-thread scan of generated corpus by file search executors.
+ *
+ * <p>Corpus stays in page cache between iterations, so it's CPU and allocation cost of executors which is measured,
+ * not the device. Run with {@code -prof gc} to see allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileSearchExecutorBenchmark {
+    private static final byte[] NEEDLE = ("NEEDLE_0123456789_abcdefghijklmnopqrstuvwxyz_0123456789_ABCDEFGH").getBytes();
+
+    @Param({"naive", "kmp", "kmp-nio", "naive-rare", "kmp-rare"})
+    public String executor;
+
+    @Param({"4", "16", "64"})
+    public int patternLength;
+
+    @Param({"4096", "65536"})
+    public int bufferSize;
+
+    private File corpusDirectory;
+    private List<FileSearchBean> files;
+    private TaskExecutor<FileSearchBean> taskExecutor;
+    private int matches;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // As in log4j.xml, debug messages of executors are not formatted
+        org.apache.log4j.Logger.getRootLogger().setLevel(org.apache.log4j.Level.INFO);
+        corpusDirectory = File.createTempFile("filesearcher-bench", "");
+        if (!corpusDirectory.delete()) {
+            throw new IOException("Unable to create corpus directory");
+        }
+        new CorpusGenerator(CorpusGenerator.DEFAULT_SEED)
+                .setDepth(2)
+                .setNeedle(NEEDLE, 10)
+                .generate(corpusDirectory);
+        files = new ArrayList<FileSearchBean>();
+        CorpusGenerator.collectFiles(corpusDirectory, files);
+
+        final byte[] pattern = Arrays.copyOf(NEEDLE, patternLength);
+        final TaskAcceptor<FileSearchBean> resultCollector = new TaskAcceptor<FileSearchBean>() {
+            @Override
+            public void push(FileSearchBean task) {
+                matches++;
+            }
+
+            @Override
+            public void signalEndOfData() {
+            }
+        };
+        if ("naive".equals(executor)) {
+            taskExecutor = new NaiveFileSearchTaskExecutor(pattern, resultCollector, bufferSize);
+        } else if ("kmp".equals(executor)) {
+            taskExecutor = new KMPFileSearchTaskExecutor(pattern, resultCollector, bufferSize);
+        } else if ("kmp-nio".equals(executor)) {
+            taskExecutor = new KMPFileSearchTaskExecutorNIO(pattern, resultCollector, bufferSize);
+        } else if ("naive-rare".equals(executor)) {
+            final NaiveFileSearchTaskExecutor naiveExecutor =
+                    new NaiveFileSearchTaskExecutor(pattern, resultCollector, bufferSize);
+            naiveExecutor.setRareBytePrefilter(true);
+            taskExecutor = naiveExecutor;
+        } else if ("kmp-rare".equals(executor)) {
+            final KMPFileSearchTaskExecutor kmpExecutor = new KMPFileSearchTaskExecutor(pattern, resultCollector, bufferSize);
+            kmpExecutor.setRareBytePrefilter(true);
+            taskExecutor = kmpExecutor;
+        } else {
+            throw new IllegalArgumentException("Unknown executor: " + executor);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        CorpusGenerator.delete(corpusDirectory);
+    }
+
+    @Benchmark
+    public int scanCorpus() throws Exception {
+        matches = 0;
+        for (FileSearchBean file : files) {
+            taskExecutor.execute(file);
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.bench;
+
+import org.aap.filesearcher.executor.TaskQueue;
+import org.aap.filesearcher.executor.impl.BlockingTaskQueue;
+import org.aap.filesearcher.executor.impl.RingBufferTaskQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hand-off of fixed count of tasks from N producers to M consumers through task queue.
+ *
+ * <p>Each operation creates a fresh queue and threads, pushes {@link #TASKS_COUNT} tasks and waits until consumers
+ * drain the queue, so the score is time per {@link #TASKS_COUNT} hand-offs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskQueueBenchmark {
+    private static final int TASKS_COUNT = 100000;
+    private static final int QUEUE_CAPACITY = 4096;
+
+    @Param({"blocking", "ring", "ring-spin"})
+    public String queueType;
+
+    @Param({"1", "4"})
+    public int producers;
+
+    @Param({"1", "4", "8"})
+    public int consumers;
+
+    @Benchmark
+    public long handOff() throws InterruptedException {
+        final TaskQueue<Integer> queue = createQueue();
+        final AtomicLong consumed = new AtomicLong();
+
+        final Thread[] consumerThreads = new Thread[consumers];
+        for (int i = 0; i < consumers; i++) {
+            consumerThreads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long count = 0;
+                    try {
+                        while (queue.pull() != null) {
+                            count++;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    consumed.addAndGet(count);
+                }
+            });
+            consumerThreads[i].start();
+        }
+
+        final Thread[] producerThreads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            final int tasks = TASKS_COUNT / producers + (i < TASKS_COUNT % producers ? 1 : 0);
+            producerThreads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int t = 0; t < tasks; t++) {
+                            queue.push(t);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            producerThreads[i].start();
+        }
+
+        for (Thread t : producerThreads) {
+            t.join();
+        }
+        queue.signalEndOfData();
+        for (Thread t : consumerThreads) {
+            t.join();
+        }
+
+        if (consumed.get() != TASKS_COUNT) {
+            throw new IllegalStateException("Lost tasks: " + (TASKS_COUNT - consumed.get()));
+        }
+        return consumed.get();
+    }
+
+    private TaskQueue<Integer> createQueue() {
+        if ("blocking".equals(queueType)) {
+            return new BlockingTaskQueue<Integer>(QUEUE_CAPACITY);
+        } else if ("ring".equals(queueType)) {
+            return new RingBufferTaskQueue<Integer>(QUEUE_CAPACITY, RingBufferTaskQueue.WaitStrategy.PARK);
+        } else if ("ring-spin".equals(queueType)) {
+            return new RingBufferTaskQueue<Integer>(QUEUE_CAPACITY, RingBufferTaskQueue.WaitStrategy.SPIN);
+        }
+        throw new IllegalArgumentException("Unknown queue type: " + queueType);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher;
+
+import org.aap.filesearcher.search.BinaryDetector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * File-search task for a byte range of the file. Chunks of the same file share {@link Group}: file channel for
+ * positional reads and "pattern found" flag which cancels remaining chunks.
+ */
+public class FileChunkSearchBean extends FileSearchBean {
+    private final Group group;
+    private final long offset;
+    private final long length;
+
+    public FileChunkSearchBean(Group group, long offset, long length) {
+        super(group.getFile().getInputFile(), group.getFile().getSize(), group.getFile().getLastModified(),
+                group.getFile().getDevice());
+        this.group = group;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public Group getGroup() {
+        return group;
+    }
+
+    /**
+     * @return Chunk start position in the file.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return Chunk length (including overlap with the next chunk).
+     */
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "FileChunkSearchBean: " + getInputFile().toString() + " [" + offset + ", +" + length + "]";
+    }
+
+    /**
+     * State shared by all chunks of the file.
+     */
+    public static class Group {
+        private final FileSearchBean file;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final AtomicInteger remaining;
+        private FileChannel channel;
+        private Boolean binary;
+
+        /**
+         * @param file Whole file task (reported if pattern is found)
+         * @param chunkCount Count of chunks
+         */
+        public Group(FileSearchBean file, int chunkCount) {
+            this.file = file;
+            this.remaining = new AtomicInteger(chunkCount);
+        }
+
+        public FileSearchBean getFile() {
+            return file;
+        }
+
+        /**
+         * @return Channel shared by chunks (opened on first call).
+         * @throws IOException if file can't be opened
+         */
+        public synchronized FileChannel getChannel() throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(file.getInputFile().toPath(), StandardOpenOption.READ);
+            }
+            return channel;
+        }
+
+        /**
+         * Check whether file looks like binary data by its first block (see {@link BinaryDetector}). Block is read
+         * once by the first chunk asking, binary file is marked done so remaining chunks stop.
+         *
+         * @param blockSize Size of the first block
+         * @return true if file looks like binary data
+         * @throws IOException if file can't be read
+         */
+        public synchronized boolean looksBinary(int blockSize) throws IOException {
+            if (binary == null) {
+                final ByteBuffer block = ByteBuffer.allocate(blockSize);
+                final FileChannel fc = getChannel();
+                while (block.hasRemaining() && fc.read(block, block.position()) != -1) {
+                    // Read until the block is filled or end of file
+                }
+                binary = BinaryDetector.looksBinary(block.array(), 0, block.position());
+                if (binary) {
+                    done.set(true);
+                }
+            }
+            return binary;
+        }
+
+        /**
+         * Mark pattern as found.
+         *
+         * @return true if it's first chunk which found the pattern (file shall be reported)
+         */
+        public boolean markFound() {
+            return done.compareAndSet(false, true);
+        }
+
+        /**
+         * @return true if pattern already found by some chunk, remaining chunks shall stop.
+         */
+        public boolean isDone() {
+            return done.get();
+        }
+
+        /**
+         * Release group by chunk, channel is closed by last chunk.
+         */
+        public void release() {
+            if (remaining.decrementAndGet() == 0) {
+                synchronized (this) {
+                    if (channel != null) {
+                        try {
+                            channel.close();
+                        } catch (IOException ioe) { /* ignore silently */ }
+                        channel = null;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -6,6 +6,10 @@
 package org.aap.filesearcher;
 
 import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.filter.IgnoreRules;
+import org.aap.filesearcher.filter.ListingFilter;
+import org.aap.filesearcher.stats.SearchMetrics;
+import org.aap.filesearcher.util.StorageDevices;
 import org.apache.log4j.Logger;
 
 import java.io.File;
@@ -21,30 +25,83 @@ public class FileListing implements Runnable {
     private final File rootDirectory;
     private final TaskAcceptor<FileSearchBean> taskQueue;
     private final LinkedList<File> directoryQueue;
+    private final ListingFilter filter;
+    /** Ignore rules of parent directory for each directory in the queue (if filter is set) */
+    private final LinkedList<IgnoreRules> rulesQueue;
+    /** Ignore rules for entries of current directory */
+    private IgnoreRules currentRules = IgnoreRules.EMPTY;
+    /** Storage device of current directory (if devices are tagged) */
+    private Object currentDevice;
+    private boolean tagDevices;
+    /** Time spent in push during listing of current directory (if metrics are enabled) */
+    private long pushNanos;
 
     public FileListing(File rootDirectory, TaskAcceptor<FileSearchBean> taskQueue) throws IllegalArgumentException {
+        this(rootDirectory, taskQueue, null);
+    }
+
+    /**
+     * @param rootDirectory Root directory
+     * @param taskQueue Task acceptor
+     * @param filter Listing filter (null - all files are accepted)
+     * @throws IllegalArgumentException if root is not a directory
+     */
+    public FileListing(File rootDirectory, TaskAcceptor<FileSearchBean> taskQueue, ListingFilter filter)
+            throws IllegalArgumentException {
         if (!rootDirectory.isDirectory()) {
             throw new IllegalArgumentException("ERR: rootDirectory should be directory");
         }
 
         this.rootDirectory = rootDirectory;
         this.taskQueue = taskQueue;
+        this.filter = filter;
         directoryQueue = new LinkedList<File>();
+        rulesQueue = new LinkedList<IgnoreRules>();
+    }
+
+    /**
+     * @param tagDevices Tag each task with storage device of its directory (see {@link FileSearchBean#getDevice()})
+     */
+    public void setTagDevices(boolean tagDevices) {
+        this.tagDevices = tagDevices;
     }
 
     @Override
     public void run() {
         try {
             directoryQueue.addLast(rootDirectory);
+            rulesQueue.addLast(IgnoreRules.EMPTY);
+            final SearchMetrics metrics = SearchMetrics.get();
 
             final FileFilter fileTraversalFilter = new FileFilter() {
                 @Override
                 public boolean accept(File pathName) {
                     if (pathName.isDirectory()) {
-                        directoryQueue.add(pathName);
+                        if (filter == null || filter.acceptDirectory(pathName, currentRules)) {
+                            directoryQueue.add(pathName);
+                            rulesQueue.add(currentRules);
+                        }
                     } else if (pathName.isFile()) {
+                        final FileSearchBean task;
+                        if (filter != null) {
+                            final long size = filter.needsSize() ? pathName.length() : FileSearchBean.UNKNOWN;
+                            if (!filter.acceptFile(pathName, size, currentRules)) {
+                                return false;
+                            }
+                            task = new FileSearchBean(pathName, size, FileSearchBean.UNKNOWN, currentDevice);
+                        } else {
+                            task = new FileSearchBean(pathName, FileSearchBean.UNKNOWN, FileSearchBean.UNKNOWN,
+                                    currentDevice);
+                        }
+
                         try {
-                            taskQueue.push(new FileSearchBean(pathName));
+                            if (metrics != null) {
+                                final long pushStart = System.nanoTime();
+                                taskQueue.push(task);
+                                pushNanos += System.nanoTime() - pushStart;
+                            } else {
+                                taskQueue.push(task);
+                            }
                         } catch (InterruptedException e) {
                             logger.warn("File listing interrupted", e);
                             Thread.currentThread().interrupt();
@@ -55,8 +112,16 @@ public class FileListing implements Runnable {
             };
             while (directoryQueue.size() > 0) {
                 final File rootNode = directoryQueue.removeFirst();
+                final IgnoreRules parentRules = rulesQueue.removeFirst();
+                currentRules = filter != null ? filter.enterDirectory(rootNode, parentRules) : parentRules;
+                currentDevice = tagDevices ? StorageDevices.deviceOf(rootNode) : null;
+                final long listingStart = metrics != null ? System.nanoTime() : 0;
+                pushNanos = 0;
                 //noinspection ResultOfMethodCallIgnored
                 rootNode.listFiles(fileTraversalFilter);
+                if (metrics != null) {
+                    metrics.recordListing(System.nanoTime() - listingStart - pushNanos);
+                }
             }
         } finally {
             logger.info("Listing finished.");
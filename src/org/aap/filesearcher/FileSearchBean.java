@@ -11,18 +11,58 @@ import java.io.File;
 
 /**
  * File-search task bean.
+ *
+ * <p>Bean may carry file attributes read during listing (size and modification time), so later stages don't
+ * need to query file system again. {@link #UNKNOWN} is used if attribute wasn't read. Listing may also tag the bean
+ * with storage device of the file (see {@link org.aap.filesearcher.util.StorageDevices}).
  */
 public class FileSearchBean implements Task {
+    public static final long UNKNOWN = -1;
     private final File inputFile;
+    private final long size;
+    private final long lastModified;
+    private final Object device;
 
     public FileSearchBean(File inputFile) {
+        this(inputFile, UNKNOWN, UNKNOWN);
+    }
+
+    public FileSearchBean(File inputFile, long size, long lastModified) {
+        this(inputFile, size, lastModified, null);
+    }
+
+    public FileSearchBean(File inputFile, long size, long lastModified, Object device) {
         this.inputFile = inputFile;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.device = device;
     }
 
-        public File getInputFile() {
+    public File getInputFile() {
         return inputFile;
     }
 
+    /**
+     * @return File size in bytes or {@link #UNKNOWN}.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return File modification time in milliseconds since the epoch or {@link #UNKNOWN}.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return Storage device of the file or null if it's unknown.
+     */
+    public Object getDevice() {
+        return device;
+    }
+
     @Override
     public String toString() {
         return "FileSearchBean: " + inputFile.toString();
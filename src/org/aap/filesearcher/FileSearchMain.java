@@ -5,17 +5,40 @@
 
 package org.aap.filesearcher;
 
+import org.aap.filesearcher.cache.SearchResultCache;
 import org.aap.filesearcher.executor.TaskAcceptor;
 import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.executor.TaskQueue;
+import org.aap.filesearcher.executor.TaskSupplier;
 import org.aap.filesearcher.executor.impl.*;
+import org.aap.filesearcher.filter.ListingFilter;
+import org.aap.filesearcher.index.IndexFilterTaskAcceptor;
+import org.aap.filesearcher.index.TrigramIndex;
+import org.aap.filesearcher.report.AsyncResultWriter;
+import org.aap.filesearcher.report.ResultFormat;
+import org.aap.filesearcher.search.ByteEquivalence;
+import org.aap.filesearcher.stats.SearchMetrics;
 import org.aap.filesearcher.stats.SimpleTaskAcceptorStats;
 import org.aap.filesearcher.util.ExecutorThread;
+import org.aap.filesearcher.util.StorageDevices;
 
+import javax.management.JMException;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Main class.
@@ -24,18 +47,54 @@ import java.util.LinkedList;
  *  <li> On start pool of threads will be created (or single-threaded queue if 0 threads specified). Each
  *  thread pulling queue for new file and begin processing.
  *  <li> {@link FileListing} performs recursive file listing and pushes file to the queue.
+ *  <li> {@link ParallelFileListing} does the same with pool of listing threads (if more than one listing
+ *  thread specified).
  *</ul>
  *
  */
 public class FileSearchMain {
+    private static final int TASK_QUEUE_CAPACITY = 4096;
+    /** Threads count value for adaptive pool */
+    private static final int AUTO_THREADS = -1;
+
     public static void main(String[] args) throws IOException, InterruptedException {
         int bufferSize = 8192;
         boolean printStats = false;
         boolean useNaive = false;
         boolean useFastNIO = false;
+        boolean useMapped = false;
+        boolean useHorspool = false;
+        File patternsFile = null;
         boolean waitForUserInput = false;
         int threadsCount = 5;
+        int listingThreadsCount = 1;
+        boolean useNio2Listing = false;
+        String queueType = "blocking";
+        int maxBatchSize = 1;
+        File indexDirectory = null;
+        File indexUpdateDirectory = null;
+        File resultCacheFile = null;
+        int maxOpenFiles = 0;
+        long splitThreshold = 0;
+        boolean findAllOccurrences = false;
+        ResultFormat outputFormat = ResultFormat.TEXT;
+        boolean exposeMetrics = false;
         Charset characterSet = Charset.forName("US-ASCII");
+        final List<String> includeGlobs = new ArrayList<String>();
+        final List<String> excludeGlobs = new ArrayList<String>();
+        String ignoreFileName = null;
+        long minFileSize = 0;
+        long maxFileSize = Long.MAX_VALUE;
+        boolean skipBinaryFiles = false;
+        boolean caseInsensitive = false;
+        boolean allEncodings = false;
+        boolean useRegex = false;
+        boolean useRareBytePrefilter = false;
+        int inodeOrderWindow = 0;
+        boolean largestFirst = false;
+        boolean useDirectIo = false;
+        int defaultDeviceLimit = 0;
+        final Map<File, Integer> deviceLimits = new LinkedHashMap<File, Integer>();
 
         // Options parsing
         // TODO: migrate to gnuopts for Java if time permit
@@ -61,6 +120,33 @@ public class FileSearchMain {
                         useFastNIO = validArgument = true;
                         argumentsIndex++;
                         break;
+                    case 'm':
+                        useMapped = validArgument = true;
+                        argumentsIndex++;
+                        break;
+                    case 'H':
+                        useHorspool = validArgument = true;
+                        argumentsIndex++;
+                        break;
+                    case 'N':
+                        useNio2Listing = validArgument = true;
+                        argumentsIndex++;
+                        break;
+                    case 'j':
+                        exposeMetrics = validArgument = true;
+                        argumentsIndex++;
+                        break;
+                    case 'a':
+                        findAllOccurrences = validArgument = true;
+                        argumentsIndex++;
+                        break;
+                    case 'o':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        outputFormat = ResultFormat.forName(args[argumentsIndex + 1]);
+                        argumentsIndex += 2;
+                        break;
                     case 'b':
                         if (!(validArgument = args.length > (argumentsIndex + 1))) {
                             throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
@@ -72,9 +158,164 @@ public class FileSearchMain {
                         if (!(validArgument = args.length > (argumentsIndex + 1))) {
                             throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
                         }
-                        threadsCount = Integer.parseInt(args[argumentsIndex + 1]);
+                        threadsCount = "auto".equals(args[argumentsIndex + 1])
+                                ? AUTO_THREADS : Integer.parseInt(args[argumentsIndex + 1]);
+                        argumentsIndex += 2;
+                        break;
+                    case 'p':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        patternsFile = new File(args[argumentsIndex + 1]);
+                        argumentsIndex += 2;
+                        break;
+                    case 'l':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        listingThreadsCount = Integer.parseInt(args[argumentsIndex + 1]);
                         argumentsIndex += 2;
                         break;
+                    case 'q':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        queueType = args[argumentsIndex + 1];
+                        argumentsIndex += 2;
+                        break;
+                    case 'B':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        maxBatchSize = Integer.parseInt(args[argumentsIndex + 1]);
+                        argumentsIndex += 2;
+                        break;
+                    case 'I':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        indexDirectory = new File(args[argumentsIndex + 1]);
+                        argumentsIndex += 2;
+                        break;
+                    case 'U':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        indexUpdateDirectory = new File(args[argumentsIndex + 1]);
+                        argumentsIndex += 2;
+                        break;
+                    case 'C':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        resultCacheFile = new File(args[argumentsIndex + 1]);
+                        argumentsIndex += 2;
+                        break;
+                    case 'v':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        maxOpenFiles = Integer.parseInt(args[argumentsIndex + 1]);
+                        argumentsIndex += 2;
+                        break;
+                    case 'S':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        splitThreshold = Long.parseLong(args[argumentsIndex + 1]);
+                        argumentsIndex += 2;
+                        break;
+                    case 'O':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        inodeOrderWindow = Integer.parseInt(args[argumentsIndex + 1]);
+                        if (inodeOrderWindow <= 0) {
+                            throw new IllegalArgumentException("Inode ordering window shall be greater than zero");
+                        }
+                        argumentsIndex += 2;
+                        break;
+                    case 'g':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        includeGlobs.add(args[argumentsIndex + 1]);
+                        argumentsIndex += 2;
+                        break;
+                    case 'x':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        excludeGlobs.add(args[argumentsIndex + 1]);
+                        argumentsIndex += 2;
+                        break;
+                    case 'G':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        ignoreFileName = args[argumentsIndex + 1];
+                        argumentsIndex += 2;
+                        break;
+                    case 'z':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        minFileSize = Long.parseLong(args[argumentsIndex + 1]);
+                        argumentsIndex += 2;
+                        break;
+                    case 'Z':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        maxFileSize = Long.parseLong(args[argumentsIndex + 1]);
+                        argumentsIndex += 2;
+                        break;
+                    case 'd':
+                        skipBinaryFiles = validArgument = true;
+                        argumentsIndex++;
+                        break;
+                    case 'i':
+                        caseInsensitive = validArgument = true;
+                        argumentsIndex++;
+                        break;
+                    case 'E':
+                        allEncodings = validArgument = true;
+                        argumentsIndex++;
+                        break;
+                    case 'r':
+                        useRegex = validArgument = true;
+                        argumentsIndex++;
+                        break;
+                    case 'D':
+                        if (!(validArgument = args.length > (argumentsIndex + 1))) {
+                            throw new IllegalArgumentException("Argument required for " + opts.charAt(1));
+                        }
+                        // <n> for all devices or <dir>=<n> for device of the directory
+                        final String deviceLimit = args[argumentsIndex + 1];
+                        final int separator = deviceLimit.lastIndexOf('=');
+                        if (separator >= 0) {
+                            deviceLimits.put(new File(deviceLimit.substring(0, separator)),
+                                    Integer.parseInt(deviceLimit.substring(separator + 1)));
+                        } else {
+                            defaultDeviceLimit = Integer.parseInt(deviceLimit);
+                            if (defaultDeviceLimit <= 0) {
+                                throw new IllegalArgumentException("Device concurrency limit shall be greater than zero");
+                            }
+                        }
+                        argumentsIndex += 2;
+                        break;
+                    case 'u':
+                        useDirectIo = validArgument = true;
+                        argumentsIndex++;
+                        break;
+                    case 'L':
+                        largestFirst = validArgument = true;
+                        argumentsIndex++;
+                        break;
+                    case 'R':
+                        useRareBytePrefilter = validArgument = true;
+                        argumentsIndex++;
+                        break;
                     case 'c':
                         validArgument = args.length > (argumentsIndex + 1);
                         if (validArgument) {
@@ -96,9 +337,10 @@ public class FileSearchMain {
             }
         }
 
-        if (args.length - argumentsIndex > 1) {
+        final boolean patternRequired = patternsFile == null && indexUpdateDirectory == null;
+        if (args.length - argumentsIndex > (patternRequired ? 1 : 0)) {
             final File rootDirectory = new File(args[argumentsIndex]);
-            final String stringPattern = args[argumentsIndex + 1];
+            final String stringPattern = patternRequired ? args[argumentsIndex + 1] : null;
 
             if (!rootDirectory.exists()) {
                 throw new FileNotFoundException(rootDirectory + " not found");
@@ -108,46 +350,271 @@ public class FileSearchMain {
                 throw new IllegalArgumentException("Input should be directory");
             }
 
+            // Prune the search space before files are opened
+            ListingFilter listingFilter = null;
+            if (!includeGlobs.isEmpty() || !excludeGlobs.isEmpty() || ignoreFileName != null
+                    || minFileSize > 0 || maxFileSize != Long.MAX_VALUE) {
+                listingFilter = new ListingFilter(rootDirectory);
+                for (String glob : includeGlobs) {
+                    listingFilter.addInclude(glob);
+                }
+                for (String glob : excludeGlobs) {
+                    listingFilter.addExclude(glob);
+                }
+                listingFilter.setIgnoreFileName(ignoreFileName);
+                listingFilter.setSizeLimits(minFileSize, maxFileSize);
+            }
+
             if (waitForUserInput) {
                 System.out.println("Hit ENTER to start search!");
                 //noinspection ResultOfMethodCallIgnored
                 System.in.read();
             }
 
-            final TaskAcceptor<FileSearchBean> reporter = new TaskAcceptor<FileSearchBean>() {
-                @Override
-                public void push(FileSearchBean task) {
-                    System.out.println(task.getInputFile().toString());
+            SearchMetrics metrics = null;
+            if (exposeMetrics) {
+                try {
+                    metrics = SearchMetrics.register();
+                } catch (JMException e) {
+                    throw new IllegalStateException("Unable to register metrics MBean", e);
                 }
+            }
 
-                @Override
-                public void signalEndOfData() {
-                }
-            };
+            final AsyncResultWriter resultWriter = new AsyncResultWriter(
+                    Channels.newChannel(new FileOutputStream(FileDescriptor.out)), outputFormat, outputCharset());
+            final TaskAcceptor<FileSearchBean> reporter = resultWriter.createFileReporter();
 
             final long startTime = System.currentTimeMillis();
 
-            final byte[] patternBytes = stringPattern.getBytes(characterSet);
+            final byte[] patternBytes = stringPattern != null ? stringPattern.getBytes(characterSet) : null;
+            final List<String> patterns = patternsFile != null ? readPatterns(patternsFile, characterSet) : null;
+            final byte[][] patternsBytes;
+            if (patterns != null) {
+                patternsBytes = new byte[patterns.size()][];
+                for (int i = 0; i < patternsBytes.length; i++) {
+                    patternsBytes[i] = patterns.get(i).getBytes(characterSet);
+                }
+            } else {
+                patternsBytes = new byte[][] {patternBytes};
+            }
+
+            // Case-insensitive classes cover all encodings pattern is searched in
+            ByteEquivalence equivalence = null;
+            if (caseInsensitive || allEncodings) {
+                if (indexDirectory != null || indexUpdateDirectory != null) {
+                    throw new IllegalArgumentException("Trigram index can't be combined with -i or -E");
+                }
+                if (caseInsensitive && !useRegex) {
+                    final List<Charset> charsets = allEncodings
+                            ? MultiEncodingFileSearchTaskExecutor.DEFAULT_CHARSETS
+                            : Collections.singletonList(characterSet);
+                    equivalence = ByteEquivalence.caseInsensitive(
+                            patterns != null ? patterns : Collections.singletonList(stringPattern), charsets);
+                }
+            }
+
+            // Result cache
+            TaskAcceptor<FileSearchBean> resultCollector = reporter;
+            SearchResultCache resultCache = null;
+            CachingTaskExecutor cachingExecutor = null;
+            if (resultCacheFile != null) {
+                if (patterns != null || indexUpdateDirectory != null || useRegex) {
+                    throw new IllegalArgumentException("Result cache can be used for single pattern search only");
+                }
+                resultCache = SearchResultCache.load(resultCacheFile, SearchResultCache.DEFAULT_MAX_ENTRIES);
+                final long patternHash = SearchResultCache.hashPattern(patternBytes, caseInsensitive, allEncodings,
+                        skipBinaryFiles);
+                cachingExecutor = new CachingTaskExecutor(resultCache, patternHash, reporter);
+                resultCollector = cachingExecutor.getResultCollector();
+            }
 
             // Algorithm selection
             TaskExecutor<FileSearchBean> taskExecutor;
-            if (useNaive) {
-                taskExecutor = new NaiveFileSearchTaskExecutor(patternBytes, reporter, bufferSize);
+            TrigramIndexTaskExecutor indexExecutor = null;
+            TrigramIndex previousIndex = null;
+            TrigramIndex.Writer indexWriter = null;
+            KMPFileSearchTaskExecutorDirect directExecutor = null;
+            if (indexUpdateDirectory != null) {
+                if (TrigramIndex.exists(indexUpdateDirectory)) {
+                    try {
+                        previousIndex = TrigramIndex.load(indexUpdateDirectory);
+                    } catch (IOException e) {
+                        System.err.println("Unable to load index, it will be rebuilt: " + e.getMessage());
+                    }
+                }
+                indexWriter = new TrigramIndex.Writer(indexUpdateDirectory);
+                taskExecutor = indexExecutor = new TrigramIndexTaskExecutor(previousIndex, indexWriter,
+                        TrigramIndexTaskExecutor.DEFAULT_BUFFER_SIZE);
+            } else if (useRareBytePrefilter && (useRegex || allEncodings || findAllOccurrences || patterns != null
+                    || useHorspool)) {
+                throw new IllegalArgumentException("Rare byte prefilter can be used with KMP, naive or mapped search only");
+            } else if (useDirectIo && (useRegex || allEncodings || findAllOccurrences || patterns != null || useHorspool
+                    || useNaive || useFastNIO || useMapped || useRareBytePrefilter || splitThreshold > 0)) {
+                throw new IllegalArgumentException("Direct I/O can be used with plain KMP search only");
+            } else if (useRegex) {
+                if (patterns != null || findAllOccurrences || allEncodings || useMapped || splitThreshold > 0
+                        || indexDirectory != null) {
+                    throw new IllegalArgumentException("Regular expression search can't be combined with -p, -a, -E, -m, -S or -I");
+                }
+                // Buffer bounds line length, so it's not smaller than default
+                final RegexFileSearchTaskExecutor regexExecutor = new RegexFileSearchTaskExecutor(stringPattern,
+                        characterSet, caseInsensitive, resultCollector,
+                        Math.max(bufferSize, RegexFileSearchTaskExecutor.DEFAULT_BUFFER_SIZE));
+                regexExecutor.setSkipBinaryFiles(skipBinaryFiles);
+                taskExecutor = regexExecutor;
+            } else if (allEncodings) {
+                if (patterns != null || findAllOccurrences || useMapped || splitThreshold > 0 || skipBinaryFiles) {
+                    // UTF-16 text without byte order mark looks like binary data
+                    throw new IllegalArgumentException("Search in all encodings can't be combined with -p, -a, -m, -S or -d");
+                }
+                taskExecutor = new MultiEncodingFileSearchTaskExecutor(stringPattern,
+                        MultiEncodingFileSearchTaskExecutor.DEFAULT_CHARSETS, resultCollector, bufferSize, equivalence);
+            } else if (findAllOccurrences) {
+                if (patterns != null || cachingExecutor != null || splitThreshold > 0) {
+                    throw new IllegalArgumentException("All occurrences mode can't be combined with -p, -C or -S");
+                }
+                final byte[] newline = "\n".getBytes(characterSet);
+                if (newline.length != 1 || newline[0] != '\n') {
+                    throw new IllegalArgumentException("All occurrences mode is not supported for " + characterSet);
+                }
+                final KMPAllOccurrencesTaskExecutor allOccurrencesExecutor = new KMPAllOccurrencesTaskExecutor(
+                        patternBytes, resultWriter.createOccurrenceReporter(), bufferSize, equivalence);
+                allOccurrencesExecutor.setSkipBinaryFiles(skipBinaryFiles);
+                taskExecutor = allOccurrencesExecutor;
+            } else if (patterns != null) {
+                final AhoCorasickFileSearchTaskExecutor multiPatternExecutor = new AhoCorasickFileSearchTaskExecutor(
+                        patternsBytes, resultWriter.createMultiPatternReporter(patterns), bufferSize, equivalence);
+                multiPatternExecutor.setSkipBinaryFiles(skipBinaryFiles);
+                taskExecutor = multiPatternExecutor;
+            } else if (useHorspool) {
+                final HorspoolFileSearchTaskExecutor horspoolExecutor = new HorspoolFileSearchTaskExecutor(
+                        patternBytes, resultCollector, bufferSize, useFastNIO, equivalence);
+                horspoolExecutor.setSkipBinaryFiles(skipBinaryFiles);
+                taskExecutor = horspoolExecutor;
+            } else if (useNaive) {
+                final NaiveFileSearchTaskExecutor naiveExecutor = new NaiveFileSearchTaskExecutor(
+                        patternBytes, resultCollector, bufferSize, equivalence);
+                naiveExecutor.setSkipBinaryFiles(skipBinaryFiles);
+                naiveExecutor.setRareBytePrefilter(useRareBytePrefilter);
+                taskExecutor = naiveExecutor;
             } else if (useFastNIO) {
-                taskExecutor = new KMPFileSearchTaskExecutorNIO(patternBytes, reporter, bufferSize);
+                final KMPFileSearchTaskExecutorNIO nioExecutor = new KMPFileSearchTaskExecutorNIO(
+                        patternBytes, resultCollector, bufferSize, equivalence);
+                nioExecutor.setSkipBinaryFiles(skipBinaryFiles);
+                nioExecutor.setRareBytePrefilter(useRareBytePrefilter);
+                taskExecutor = nioExecutor;
+            } else if (useMapped) {
+                if (skipBinaryFiles) {
+                    throw new IllegalArgumentException("Binary files detection can't be combined with -m");
+                }
+                final KMPFileSearchTaskExecutorMapped mappedExecutor = new KMPFileSearchTaskExecutorMapped(
+                        patternBytes, resultCollector, KMPFileSearchTaskExecutorMapped.DEFAULT_MAP_SIZE, equivalence);
+                mappedExecutor.setRareBytePrefilter(useRareBytePrefilter);
+                taskExecutor = mappedExecutor;
+            } else if (useDirectIo) {
+                directExecutor = new KMPFileSearchTaskExecutorDirect(patternBytes, resultCollector,
+                        Math.max(bufferSize, KMPFileSearchTaskExecutorDirect.DEFAULT_BUFFER_SIZE), equivalence);
+                directExecutor.setSkipBinaryFiles(skipBinaryFiles);
+                taskExecutor = directExecutor;
             } else {
-                taskExecutor = new KMPFileSearchTaskExecutor(patternBytes, reporter, bufferSize);
+                final KMPFileSearchTaskExecutor kmpExecutor = new KMPFileSearchTaskExecutor(
+                        patternBytes, resultCollector, bufferSize, equivalence);
+                kmpExecutor.setSkipBinaryFiles(skipBinaryFiles);
+                kmpExecutor.setRareBytePrefilter(useRareBytePrefilter);
+                taskExecutor = kmpExecutor;
+            }
+            if (splitThreshold > 0) {
+                if (patternBytes == null || cachingExecutor != null) {
+                    throw new IllegalArgumentException("Files splitting can be used for single pattern search without cache only");
+                }
+                if (useNaive || useFastNIO || useRareBytePrefilter || useMapped) {
+                    // Chunks are always searched with Horspool, so the selected algorithm would apply to small files only
+                    throw new IllegalArgumentException("Files splitting can't be combined with -n, -f, -R or -m");
+                }
+                final ChunkedFileSearchTaskExecutor chunkedExecutor = new ChunkedFileSearchTaskExecutor(taskExecutor,
+                        patternBytes, resultCollector, ChunkedFileSearchTaskExecutor.DEFAULT_BUFFER_SIZE, equivalence);
+                chunkedExecutor.setSkipBinaryFiles(skipBinaryFiles);
+                taskExecutor = chunkedExecutor;
+            }
+            if (cachingExecutor != null) {
+                cachingExecutor.setDelegate(taskExecutor);
+                taskExecutor = cachingExecutor;
             }
 
             // Threading
             TaskAcceptor<FileSearchBean> taskAcceptor;
             final LinkedList<ExecutorThread<FileSearchBean>> threadPool = new LinkedList<ExecutorThread<FileSearchBean>>();
-            if (threadsCount > 0) {
-                final BlockingTaskQueue<FileSearchBean> taskQueue = new BlockingTaskQueue<FileSearchBean>(4096);
+            VirtualThreadTaskAcceptor<FileSearchBean> virtualThreadExecutor = null;
+            AdaptiveThreadPool<FileSearchBean> adaptivePool = null;
+            if (largestFirst && (maxOpenFiles > 0 || threadsCount == 0 || maxBatchSize > 1 || !"blocking".equals(queueType))) {
+                throw new IllegalArgumentException("Largest-first scheduling can't be combined with -v, -B, -q or -t 0");
+            }
+            DeviceTaskQueue deviceQueue = null;
+            if (defaultDeviceLimit != 0 || !deviceLimits.isEmpty()) {
+                if (maxOpenFiles > 0 || threadsCount <= 0 || maxBatchSize > 1 || !"blocking".equals(queueType)
+                        || largestFirst) {
+                    throw new IllegalArgumentException("Per-device limits can't be combined with -v, -B, -q, -L, -t 0 or -t auto");
+                }
+                deviceQueue = new DeviceTaskQueue(TASK_QUEUE_CAPACITY,
+                        defaultDeviceLimit != 0 ? defaultDeviceLimit : threadsCount);
+                for (Map.Entry<File, Integer> limit : deviceLimits.entrySet()) {
+                    final Object device = StorageDevices.deviceOf(limit.getKey());
+                    if (device == null) {
+                        throw new IllegalArgumentException("Unable to find device of " + limit.getKey());
+                    }
+                    deviceQueue.setLimit(device, limit.getValue());
+                }
+            }
+            if (maxOpenFiles > 0) {
+                // thread per task, limited count of open files
+                taskAcceptor = virtualThreadExecutor = new VirtualThreadTaskAcceptor<FileSearchBean>(taskExecutor, maxOpenFiles);
+            } else if (threadsCount == AUTO_THREADS) {
+                // pool size is adjusted while running
+                if (maxBatchSize > 1) {
+                    throw new IllegalArgumentException("Adaptive threads count can't be combined with -B");
+                }
+                final TaskQueue<FileSearchBean> taskQueue = largestFirst
+                        ? new SizeOrderedTaskQueue(TASK_QUEUE_CAPACITY)
+                        : createTaskQueue(queueType, TASK_QUEUE_CAPACITY);
+                if (metrics != null) {
+                    metrics.setTaskQueue(taskQueue);
+                }
                 taskAcceptor = taskQueue;
+                adaptivePool = new AdaptiveThreadPool<FileSearchBean>(taskQueue, taskExecutor,
+                        AdaptiveThreadPool.DEFAULT_INITIAL_THREADS, AdaptiveThreadPool.DEFAULT_MAX_THREADS,
+                        AdaptiveThreadPool.DEFAULT_INTERVAL);
+            } else if (threadsCount > 0) {
+                final TaskQueue<FileSearchBean> taskQueue;
+                final TaskQueue<List<FileSearchBean>> batchQueue;
+                if (maxBatchSize > 1) {
+                    // Queue of batches, capacity in tasks is kept about the same
+                    taskQueue = null;
+                    batchQueue = createTaskQueue(queueType, Math.max(2 * threadsCount, TASK_QUEUE_CAPACITY / maxBatchSize));
+                    taskAcceptor = new BatchingTaskAcceptor<FileSearchBean>(batchQueue, maxBatchSize, threadsCount,
+                            TASK_QUEUE_CAPACITY / maxBatchSize / 2);
+                    if (metrics != null) {
+                        metrics.setTaskQueue(batchQueue);
+                    }
+                } else {
+                    if (deviceQueue != null) {
+                        taskQueue = deviceQueue;
+                    } else {
+                        taskQueue = largestFirst
+                                ? new SizeOrderedTaskQueue(TASK_QUEUE_CAPACITY)
+                                : createTaskQueue(queueType, TASK_QUEUE_CAPACITY);
+                    }
+                    batchQueue = null;
+                    taskAcceptor = taskQueue;
+                    if (metrics != null) {
+                        metrics.setTaskQueue(taskQueue);
+                    }
+                }
 
                 for (int i = 0; i < threadsCount; i++) {
-                    final TaskRunner<FileSearchBean> taskRunner = new TaskRunner<FileSearchBean>(taskQueue, taskExecutor);
+                    final TaskSupplier<FileSearchBean> taskSupplier = batchQueue != null
+                            ? new BatchTaskSupplier<FileSearchBean>(batchQueue)
+                            : taskQueue;
+                    final TaskRunner<FileSearchBean> taskRunner = new TaskRunner<FileSearchBean>(taskSupplier, taskExecutor);
                     final ExecutorThread<FileSearchBean> t = new ExecutorThread<FileSearchBean>(taskRunner, "Executor #" + i);
                     t.start();
 
@@ -158,15 +625,65 @@ public class FileSearchMain {
                 taskAcceptor = new SingleTaskQueue<FileSearchBean>(taskExecutor);
             }
 
+            if (splitThreshold > 0) {
+                taskAcceptor = new FileSplittingTaskAcceptor(taskAcceptor, splitThreshold, patternBytes.length);
+            }
+
+            // Read files in about on-disk order
+            InodeOrderingTaskAcceptor inodeOrdering = null;
+            if (inodeOrderWindow > 0) {
+                taskAcceptor = inodeOrdering = new InodeOrderingTaskAcceptor(taskAcceptor, inodeOrderWindow);
+            }
+
             final SimpleTaskAcceptorStats<FileSearchBean> taskCounter = new SimpleTaskAcceptorStats<FileSearchBean>(taskAcceptor);
 
-            final FileListing fileListing = new FileListing(rootDirectory, taskCounter);
+            // Narrow the search with trigram index
+            TaskAcceptor<FileSearchBean> listingAcceptor = taskCounter;
+            IndexFilterTaskAcceptor indexFilter = null;
+            if (indexDirectory != null && indexUpdateDirectory == null) {
+                final TrigramIndex index = TrigramIndex.load(indexDirectory);
+                listingAcceptor = indexFilter = new IndexFilterTaskAcceptor(taskCounter, index,
+                        findIndexCandidates(index, patternsBytes));
+            }
+
+            final Runnable fileListing;
+            if (listingThreadsCount > 1) {
+                final ParallelFileListing parallelListing = new ParallelFileListing(rootDirectory, listingAcceptor,
+                        listingThreadsCount, useNio2Listing, listingFilter);
+                parallelListing.setTagDevices(deviceQueue != null);
+                fileListing = parallelListing;
+            } else if (useNio2Listing) {
+                final Nio2FileListing nio2Listing = new Nio2FileListing(rootDirectory, listingAcceptor, listingFilter);
+                nio2Listing.setTagDevices(deviceQueue != null);
+                fileListing = nio2Listing;
+            } else {
+                final FileListing listing = new FileListing(rootDirectory, listingAcceptor, listingFilter);
+                listing.setTagDevices(deviceQueue != null);
+                fileListing = listing;
+            }
             fileListing.run();
 
             // Wait for all threads...
+            if (adaptivePool != null) {
+                adaptivePool.join();
+                threadPool.addAll(adaptivePool.getThreads());
+            }
             for (ExecutorThread<FileSearchBean> t : threadPool) {
                 t.join();
             }
+            resultWriter.close();
+
+            if (indexExecutor != null) {
+                if (previousIndex != null) {
+                    previousIndex.close();
+                }
+                indexWriter.commit();
+                System.out.printf("Index updated: %d files indexed, %d files unchanged\n",
+                        indexExecutor.getFilesIndexed(), indexExecutor.getFilesReused());
+            }
+            if (resultCache != null) {
+                resultCache.save(resultCacheFile);
+            }
 
             // Wait for threads...
             final long totalTaskProcessed = taskCounter.getTaskCount();
@@ -174,33 +691,197 @@ public class FileSearchMain {
             long threadTimeTotal = 0;
 
             if (printStats) {
+                // Idle time at the end: time from runner completion to completion of the last runner
+                long lastFinishTime = 0;
+                for (ExecutorThread<FileSearchBean> t : threadPool) {
+                    lastFinishTime = Math.max(lastFinishTime, t.getTaskRunner().getFinishTime());
+                }
                 for (ExecutorThread<FileSearchBean> t : threadPool) {
                     TaskRunner tr = t.getTaskRunner();
-                    System.out.printf("Thread '%s' stats: task processed: %d, time: %d msec\n",
-                            t.getName(), tr.getTasksProcessed(), tr.getThreadUptime());
+                    System.out.printf("Thread '%s' stats: task processed: %d, time: %d msec, idle at end: %d msec\n",
+                            t.getName(), tr.getTasksProcessed(), tr.getThreadUptime(),
+                            lastFinishTime - tr.getFinishTime());
                     threadTimeTotal += tr.getThreadUptime();
                 }
+                if (virtualThreadExecutor != null) {
+                    System.out.printf("Thread '%s' stats: task processed: %d, time: %d msec\n", "Virtual executor",
+                            virtualThreadExecutor.getTasksProcessed(), virtualThreadExecutor.getThreadUptime());
+                    threadTimeTotal += virtualThreadExecutor.getThreadUptime();
+                }
                 final long filesPerSecond = timeSpend > 0 ? (int)(totalTaskProcessed*1000/timeSpend) : totalTaskProcessed;
                 System.out.printf("Execution time: %d msec (threads uptime: %d msec), files processed: %d\n" +
                         "Speed: %d files per sec\n", timeSpend, threadTimeTotal, totalTaskProcessed, filesPerSecond);
+                if (indexFilter != null) {
+                    System.out.printf("Files skipped by index: %d\n", indexFilter.getFilesSkipped());
+                }
+                if (deviceQueue != null) {
+                    for (DeviceTaskQueue.DeviceStats device : deviceQueue.getDeviceStats()) {
+                        System.out.printf("Device '%s': files processed: %d, concurrency limit: %d, max concurrent: %d\n",
+                                StorageDevices.describe(device.getSampleFile()), device.getTasksProcessed(),
+                                device.getLimit(), device.getMaxRunning());
+                    }
+                }
+                if (directExecutor != null) {
+                    System.out.printf("Direct I/O: %d files, %d files read through page cache (not supported by file system)\n",
+                            directExecutor.getDirectFiles(), directExecutor.getBufferedFiles());
+                }
+                if (inodeOrdering != null) {
+                    System.out.printf("Inode ordering: %d windows sorted%s\n", inodeOrdering.getWindowsSorted(),
+                            inodeOrdering.isInodesSupported() ? "" : " (inode numbers are not supported)");
+                }
+                if (listingFilter != null) {
+                    System.out.printf("Files filtered at listing: %d, directories pruned: %d\n",
+                            listingFilter.getFilesFiltered(), listingFilter.getDirectoriesPruned());
+                }
+                if (metrics != null) {
+                    System.out.printf("Bytes read: %d\n", metrics.getBytesRead());
+                    System.out.printf("Listing time (per directory): %s\n", metrics.getListingTime());
+                    System.out.printf("Open time: %s\n", metrics.getOpenTime());
+                    System.out.printf("Read time: %s\n", metrics.getReadTime());
+                    System.out.printf("Match time: %s\n", metrics.getMatchTime());
+                }
+                if (resultCache != null) {
+                    System.out.printf("Result cache: %d hits, %d misses, %d entries\n",
+                            resultCache.getHits(), resultCache.getMisses(), resultCache.size());
+                }
             }
         } else {
             printHelp();
         }
     }
 
+    /**
+     * Get encoding of standard output, the one {@link System#out} uses (pattern charset doesn't affect output).
+     *
+     * @return Output charset
+     */
+    private static Charset outputCharset() {
+        final String encoding = System.getProperty("stdout.encoding", System.getProperty("sun.stdout.encoding"));
+        if (encoding != null && Charset.isSupported(encoding)) {
+            return Charset.forName(encoding);
+        }
+        return Charset.defaultCharset();
+    }
+
+    /**
+     * Create task queue between file listing and executor threads.
+     *
+     * @param queueType Queue type: "blocking", "ring" (lock-free, parking wait) or "ring-spin" (lock-free, spinning wait)
+     * @param capacity Queue capacity
+     * @return New task queue
+     * @throws IllegalArgumentException if queue type is unknown
+     */
+    private static <E> TaskQueue<E> createTaskQueue(String queueType, int capacity) throws IllegalArgumentException {
+        if ("blocking".equals(queueType)) {
+            return new BlockingTaskQueue<E>(capacity);
+        } else if ("ring".equals(queueType)) {
+            return new RingBufferTaskQueue<E>(capacity, RingBufferTaskQueue.WaitStrategy.PARK);
+        } else if ("ring-spin".equals(queueType)) {
+            return new RingBufferTaskQueue<E>(capacity, RingBufferTaskQueue.WaitStrategy.SPIN);
+        }
+        throw new IllegalArgumentException("Invalid queue type specified: " + queueType);
+    }
+
+    /**
+     * Find candidate files for any of patterns.
+     *
+     * @param index Trigram index
+     * @param patternsBytes Patterns
+     * @return Candidate flag for each file id or null if index can't narrow the search
+     * @throws IOException if index can't be read
+     */
+    private static boolean[] findIndexCandidates(TrigramIndex index, byte[][] patternsBytes) throws IOException {
+        boolean[] candidates = null;
+        for (byte[] pattern : patternsBytes) {
+            final boolean[] patternCandidates = index.findCandidates(pattern);
+            if (patternCandidates == null) {
+                return null;
+            }
+            if (candidates == null) {
+                candidates = patternCandidates;
+            } else {
+                for (int i = 0; i < candidates.length; i++) {
+                    candidates[i] |= patternCandidates[i];
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Read search patterns from file, one pattern per line (empty lines are ignored).
+     *
+     * @param patternsFile File with patterns
+     * @param characterSet Character set of patterns file
+     * @return List of patterns
+     * @throws IOException if file can't be read
+     * @throws IllegalArgumentException if file doesn't contain any pattern
+     */
+    private static List<String> readPatterns(File patternsFile, Charset characterSet) throws IOException {
+        final List<String> patterns = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(patternsFile), characterSet));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    patterns.add(line);
+                }
+            }
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ioe) { /* ignore silently */ }
+        }
+
+        if (patterns.isEmpty()) {
+            throw new IllegalArgumentException("No patterns found in " + patternsFile);
+        }
+        return patterns;
+    }
+
     /**
      * Just print help to standard output.
      */
     public static void printHelp() {
         System.out.println("java FileSearcher [options] [--] <path> <string pattern>");
+        System.out.println("java FileSearcher [options] -p <patterns file> [--] <path>");
+        System.out.println("java FileSearcher [options] -U <index dir> [--] <path>");
         System.out.println("    Options:");
-        System.out.println("        -t <n>  \tSet processing threads count to <n> (Default: 5)");
+        System.out.println("        -t <n>  \tSet processing threads count to <n>, \"auto\" - adjust to device while running (Default: 5)");
+        System.out.println("        -l <n>  \tSet file listing threads count to <n>, work-stealing listing if > 1 (Default: 1)");
+        System.out.println("        -N      \tUse NIO.2 file listing, reads attributes of each entry once (Default: no)");
+        System.out.println("        -q <type>  \tSet task queue type: blocking, ring (lock-free), ring-spin (lock-free, busy wait) (Default: blocking)");
+        System.out.println("        -B <n>  \tHand off tasks to threads in batches of up to <n> files, adaptive to queue depth (Default: 1)");
+        System.out.println("        -v <n>  \tRun each file search in its own virtual thread, at most <n> open files (Default: no)");
+        System.out.println("        -S <n>  \tSplit files bigger than <n> bytes into chunks searched concurrently with Horspool (Default: no)");
+        System.out.println("        -D <n>|<dir>=<n>  \tSearch at most <n> files at once per storage device (or device of <dir>), may be repeated (Default: no)");
+        System.out.println("        -L      \tSearch the largest listed files first, small files fill the gaps (Default: no)");
+        System.out.println("        -O <n>  \tSearch files sorted by inode number in windows of <n> files, cuts seeks on HDD (Default: no)");
         System.out.println("        -b <n>  \tSet file-input buffer to <n> (Default: 8192)");
         System.out.println("        -c <charset>  \tSet character set to <charset> (Default: \"US-ASCII\")");
+        System.out.println("        -r      \tPattern is a regular expression, matched within lines, literal parts are searched first (Default: no)");
+        System.out.println("        -i      \tCase-insensitive search (Default: no)");
+        System.out.println("        -E      \tSearch pattern encoded in UTF-8, UTF-16LE and UTF-16BE at once, -c is ignored, with -i pattern shall be ASCII (Default: no)");
+        System.out.println("        -o <format>  \tSet output format: text, nul (NUL-terminated results), json (JSON lines) (Default: text)");
+        System.out.println("        -a      \tReport all occurrences as <path>:<line>:<byte offset> (Default: no)");
+        System.out.println("        -p <file>  \tSearch for all patterns from <file> (one per line) in one pass (Aho-Corasick)");
+        System.out.println("        -g <glob>  \tSearch only files matching <glob>, may be repeated (Default: all files)");
+        System.out.println("        -x <glob>  \tSkip files and directories matching <glob>, may be repeated (Default: no)");
+        System.out.println("        -G <name>  \tRead .gitignore-style ignore files named <name> in each directory (Default: no)");
+        System.out.println("        -z <n>  \tSkip files smaller than <n> bytes (Default: 0)");
+        System.out.println("        -Z <n>  \tSkip files bigger than <n> bytes (Default: no limit)");
+        System.out.println("        -d      \tSkip binary files, detected by NUL bytes in the first block (Default: no)");
+        System.out.println("        -U <dir>  \tBuild or refresh trigram index in <dir> (only new and changed files are read)");
+        System.out.println("        -I <dir>  \tUse trigram index from <dir> to skip files which can't contain pattern");
+        System.out.println("        -C <file>  \tCache search results in <file>, unchanged files are not read again");
+        System.out.println("        -j      \tExpose live stats and latency histograms over JMX as " + SearchMetrics.OBJECT_NAME + " (Default: no)");
         System.out.println("        -s      \tPrint stats after processing (Default: no)");
         System.out.println("        -w      \tWait for user input before start (Default: no)");
         System.out.println("        -n      \tUse Naive search algorithm (Default: no)");
+        System.out.println("        -R      \tSkip to positions of the rarest pattern byte found 8 bytes at a time, for KMP, -n, -m (Default: no)");
+        System.out.println("        -u      \tRead files with direct I/O bypassing page cache, for KMP search (Default: no)");
+        System.out.println("        -m      \tUse memory-mapped files for KMP search (Default: no)");
+        System.out.println("        -H      \tUse Boyer-Moore-Horspool search algorithm, with -f reads into direct buffer (Default: no)");
         System.out.println();
         System.out.println("    <path> - root path");
         System.out.println("    <string pattern> - string pattern for search");
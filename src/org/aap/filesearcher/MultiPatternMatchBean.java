@@ -0,0 +1,40 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher;
+
+import org.aap.filesearcher.executor.Task;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Multi-pattern search result bean: file and indexes of patterns found in the file.
+ */
+public class MultiPatternMatchBean implements Task {
+    private final File inputFile;
+    private final int[] matchedPatterns;
+
+    public MultiPatternMatchBean(File inputFile, int[] matchedPatterns) {
+        this.inputFile = inputFile;
+        this.matchedPatterns = matchedPatterns;
+    }
+
+    public File getInputFile() {
+        return inputFile;
+    }
+
+    /**
+     * @return Indexes of matched patterns in ascending order.
+     */
+    public int[] getMatchedPatterns() {
+        return matchedPatterns;
+    }
+
+    @Override
+    public String toString() {
+        return "MultiPatternMatchBean: " + inputFile.toString() + " " + Arrays.toString(matchedPatterns);
+    }
+}
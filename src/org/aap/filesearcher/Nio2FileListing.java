@@ -0,0 +1,173 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher;
+
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.filter.IgnoreRules;
+import org.aap.filesearcher.filter.ListingFilter;
+import org.aap.filesearcher.stats.SearchMetrics;
+import org.aap.filesearcher.util.StorageDevices;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.LinkedList;
+
+/**
+ * Recursive file listing based on NIO.2 {@link Files#walkFileTree}.
+ *
+ * <p>Attributes of each entry are read once (instead of {@link File#isDirectory()} and then {@link File#isFile()}
+ * calls), file size and modification time are passed to {@link FileSearchBean}.
+ */
+public class Nio2FileListing implements Runnable {
+    private final static Logger logger = Logger.getLogger(Nio2FileListing.class);
+    private final File rootDirectory;
+    private final TaskAcceptor<FileSearchBean> taskQueue;
+    private final ListingFilter filter;
+    private boolean tagDevices;
+
+    public Nio2FileListing(File rootDirectory, TaskAcceptor<FileSearchBean> taskQueue) throws IllegalArgumentException {
+        this(rootDirectory, taskQueue, null);
+    }
+
+    /**
+     * @param rootDirectory Root directory
+     * @param taskQueue Task acceptor
+     * @param filter Listing filter (null - all files are accepted)
+     * @throws IllegalArgumentException if root is not a directory
+     */
+    public Nio2FileListing(File rootDirectory, TaskAcceptor<FileSearchBean> taskQueue, ListingFilter filter)
+            throws IllegalArgumentException {
+        if (!rootDirectory.isDirectory()) {
+            throw new IllegalArgumentException("ERR: rootDirectory should be directory");
+        }
+
+        this.rootDirectory = rootDirectory;
+        this.taskQueue = taskQueue;
+        this.filter = filter;
+    }
+
+    /**
+     * @param tagDevices Tag each task with storage device of its directory (see {@link FileSearchBean#getDevice()})
+     */
+    public void setTagDevices(boolean tagDevices) {
+        this.tagDevices = tagDevices;
+    }
+
+    @Override
+    public void run() {
+        final SearchMetrics metrics = SearchMetrics.get();
+        try {
+            Files.walkFileTree(rootDirectory.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                    new SimpleFileVisitor<Path>() {
+                        /** Directories being listed (if metrics are enabled): start time, time to exclude */
+                        private final LinkedList<long[]> directories = new LinkedList<long[]>();
+                        /** Ignore rules of directories being listed (if filter is set) */
+                        private final LinkedList<IgnoreRules> rules = new LinkedList<IgnoreRules>();
+                        /** Storage devices of directories being listed (if devices are tagged) */
+                        private final LinkedList<Object> devices = new LinkedList<Object>();
+
+                        @Override
+                        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                            if (filter != null) {
+                                final IgnoreRules parentRules = rules.isEmpty() ? IgnoreRules.EMPTY : rules.getLast();
+                                final File directory = dir.toFile();
+                                if (!rules.isEmpty() && !filter.acceptDirectory(directory, parentRules)) {
+                                    return FileVisitResult.SKIP_SUBTREE;
+                                }
+                                rules.addLast(filter.enterDirectory(directory, parentRules));
+                            }
+                            if (tagDevices) {
+                                devices.addLast(StorageDevices.deviceOf(dir.toFile()));
+                            }
+                            if (metrics != null) {
+                                directories.addLast(new long[] {System.nanoTime(), 0});
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                            if (filter != null) {
+                                rules.removeLast();
+                            }
+                            if (tagDevices) {
+                                devices.removeLast();
+                            }
+                            if (metrics != null) {
+                                // Subdirectories and push are excluded from directory listing time
+                                final long[] directory = directories.removeLast();
+                                final long elapsed = System.nanoTime() - directory[0];
+                                metrics.recordListing(elapsed - directory[1]);
+                                if (!directories.isEmpty()) {
+                                    directories.getLast()[1] += elapsed;
+                                }
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                            if (!attrs.isRegularFile()) {
+                                return FileVisitResult.CONTINUE;
+                            }
+                            if (filter != null && !filter.acceptFile(file.toFile(), attrs.size(), rules.getLast())) {
+                                return FileVisitResult.CONTINUE;
+                            }
+
+                            try {
+                                if (metrics != null) {
+                                    final long pushStart = System.nanoTime();
+                                    taskQueue.push(createSearchTask(file, attrs, device()));
+                                    directories.getLast()[1] += System.nanoTime() - pushStart;
+                                } else {
+                                    taskQueue.push(createSearchTask(file, attrs, device()));
+                                }
+                            } catch (InterruptedException e) {
+                                logger.warn("File listing interrupted", e);
+                                Thread.currentThread().interrupt();
+                                return FileVisitResult.TERMINATE;
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        private Object device() {
+                            return tagDevices ? devices.getLast() : null;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                            logger.debug("Unable to visit " + file, exc);
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+        } catch (IOException e) {
+            logger.error("File listing failed", e);
+        } finally {
+            logger.info("Listing finished.");
+            taskQueue.signalEndOfData();
+        }
+    }
+
+    /**
+     * Create search task from already read attributes.
+     *
+     * @param file File path
+     * @param attrs File attributes
+     * @param device Storage device or null
+     * @return New task
+     */
+    static FileSearchBean createSearchTask(Path file, BasicFileAttributes attrs, Object device) {
+        return new FileSearchBean(file.toFile(), attrs.size(), attrs.lastModifiedTime().toMillis(), device);
+    }
+}
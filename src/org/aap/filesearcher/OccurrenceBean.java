@@ -0,0 +1,48 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher;
+
+import org.aap.filesearcher.executor.Task;
+
+import java.io.File;
+
+/**
+ * Single pattern occurrence: file, byte offset of the occurrence and line number.
+ */
+public class OccurrenceBean implements Task {
+    private final File inputFile;
+    private final long offset;
+    private final long lineNumber;
+
+    public OccurrenceBean(File inputFile, long offset, long lineNumber) {
+        this.inputFile = inputFile;
+        this.offset = offset;
+        this.lineNumber = lineNumber;
+    }
+
+    public File getInputFile() {
+        return inputFile;
+    }
+
+    /**
+     * @return Byte offset of the occurrence start (from 0).
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return Line number of the occurrence start (from 1).
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public String toString() {
+        return "OccurrenceBean: " + inputFile.toString() + ":" + lineNumber + ":" + offset;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher;
+
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.filter.IgnoreRules;
+import org.aap.filesearcher.filter.ListingFilter;
+import org.aap.filesearcher.stats.SearchMetrics;
+import org.aap.filesearcher.util.StorageDevices;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Recursive file listing performed by pool of threads.
+ *
+ * <p>Each directory is listed by separate fork-join action, subdirectories are forked as new actions, so idle
+ * listing threads steal directories from busy ones. All found files are pushed to the same task acceptor,
+ * {@link TaskAcceptor#signalEndOfData()} is called once after whole tree is listed.
+ *
+ * <p>Directories can be listed either with {@link File#listFiles()} or with NIO.2 (attributes of each entry are
+ * read once and passed to {@link FileSearchBean}, see {@link Nio2FileListing}).
+ *
+ * <p>Task acceptor shall be thread-safe.
+ */
+public class ParallelFileListing implements Runnable {
+    private final static Logger logger = Logger.getLogger(ParallelFileListing.class);
+    private final File rootDirectory;
+    private final TaskAcceptor<FileSearchBean> taskQueue;
+    private final int parallelism;
+    private final boolean useNio2;
+    private final ListingFilter filter;
+    private volatile boolean interrupted;
+    private boolean tagDevices;
+
+    public ParallelFileListing(File rootDirectory, TaskAcceptor<FileSearchBean> taskQueue, int parallelism)
+            throws IllegalArgumentException {
+        this(rootDirectory, taskQueue, parallelism, false);
+    }
+
+    public ParallelFileListing(File rootDirectory, TaskAcceptor<FileSearchBean> taskQueue, int parallelism,
+                               boolean useNio2) throws IllegalArgumentException {
+        this(rootDirectory, taskQueue, parallelism, useNio2, null);
+    }
+
+    /**
+     * @param rootDirectory Root directory
+     * @param taskQueue Task acceptor (shall be thread-safe)
+     * @param parallelism Count of listing threads
+     * @param useNio2 Use NIO.2 directory streams
+     * @param filter Listing filter (null - all files are accepted)
+     * @throws IllegalArgumentException if root is not a directory or parallelism is invalid
+     */
+    public ParallelFileListing(File rootDirectory, TaskAcceptor<FileSearchBean> taskQueue, int parallelism,
+                               boolean useNio2, ListingFilter filter) throws IllegalArgumentException {
+        if (!rootDirectory.isDirectory()) {
+            throw new IllegalArgumentException("ERR: rootDirectory should be directory");
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("ERR: parallelism shall be greater than zero");
+        }
+
+        this.rootDirectory = rootDirectory;
+        this.taskQueue = taskQueue;
+        this.parallelism = parallelism;
+        this.useNio2 = useNio2;
+        this.filter = filter;
+    }
+
+    /**
+     * @param tagDevices Tag each task with storage device of its directory (see {@link FileSearchBean#getDevice()})
+     */
+    public void setTagDevices(boolean tagDevices) {
+        this.tagDevices = tagDevices;
+    }
+
+    @Override
+    public void run() {
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new DirectoryListingAction(rootDirectory, IgnoreRules.EMPTY));
+        } finally {
+            pool.shutdown();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            logger.info("Listing finished.");
+            taskQueue.signalEndOfData();
+        }
+    }
+
+    /**
+     * Lists one directory: pushes files and forks actions for subdirectories.
+     */
+    private class DirectoryListingAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final File directory;
+        /** Ignore rules of the parent directory */
+        private final IgnoreRules parentRules;
+
+        DirectoryListingAction(File directory, IgnoreRules parentRules) {
+            this.directory = directory;
+            this.parentRules = parentRules;
+        }
+
+        @Override
+        protected void compute() {
+            if (interrupted) {
+                return;
+            }
+
+            final List<DirectoryListingAction> subdirectories = new ArrayList<DirectoryListingAction>();
+            final SearchMetrics metrics = SearchMetrics.get();
+            final long listingStart = metrics != null ? System.nanoTime() : 0;
+            final IgnoreRules rules = filter != null ? filter.enterDirectory(directory, parentRules) : parentRules;
+            final Object device = tagDevices ? StorageDevices.deviceOf(directory) : null;
+            try {
+                final long pushNanos = useNio2
+                        ? listNio2(subdirectories, rules, device, metrics)
+                        : listFiles(subdirectories, rules, device, metrics);
+                if (metrics != null) {
+                    metrics.recordListing(System.nanoTime() - listingStart - pushNanos);
+                }
+            } catch (InterruptedException e) {
+                logger.warn("File listing interrupted", e);
+                interrupted = true;
+                return;
+            }
+            invokeAll(subdirectories);
+        }
+
+        /**
+         * @return Time spent in push (if metrics are enabled)
+         */
+        private long listFiles(List<DirectoryListingAction> subdirectories, IgnoreRules rules, Object device,
+                               SearchMetrics metrics) throws InterruptedException {
+            final File[] entries = directory.listFiles();
+            if (entries == null) {
+                return 0;
+            }
+
+            long pushNanos = 0;
+
+            for (File entry : entries) {
+                if (entry.isDirectory()) {
+                    if (filter == null || filter.acceptDirectory(entry, rules)) {
+                        subdirectories.add(new DirectoryListingAction(entry, rules));
+                    }
+                } else if (entry.isFile()) {
+                    final FileSearchBean task;
+                    if (filter != null) {
+                        final long size = filter.needsSize() ? entry.length() : FileSearchBean.UNKNOWN;
+                        if (!filter.acceptFile(entry, size, rules)) {
+                            continue;
+                        }
+                        task = new FileSearchBean(entry, size, FileSearchBean.UNKNOWN, device);
+                    } else {
+                        task = new FileSearchBean(entry, FileSearchBean.UNKNOWN, FileSearchBean.UNKNOWN, device);
+                    }
+
+                    final long pushStart = metrics != null ? System.nanoTime() : 0;
+                    taskQueue.push(task);
+                    if (metrics != null) {
+                        pushNanos += System.nanoTime() - pushStart;
+                    }
+                }
+            }
+            return pushNanos;
+        }
+
+        /**
+         * @return Time spent in push (if metrics are enabled)
+         */
+        private long listNio2(List<DirectoryListingAction> subdirectories, IgnoreRules rules, Object device,
+                              SearchMetrics metrics) throws InterruptedException {
+            final DirectoryStream<Path> entries;
+            try {
+                entries = Files.newDirectoryStream(directory.toPath());
+            } catch (IOException e) {
+                logger.debug("Unable to list " + directory, e);
+                return 0;
+            }
+
+            long pushNanos = 0;
+
+            try {
+                for (Path entry : entries) {
+                    final BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        logger.debug("Unable to read attributes of " + entry, e);
+                        continue;
+                    }
+
+                    if (attrs.isDirectory()) {
+                        final File subdirectory = entry.toFile();
+                        if (filter == null || filter.acceptDirectory(subdirectory, rules)) {
+                            subdirectories.add(new DirectoryListingAction(subdirectory, rules));
+                        }
+                    } else if (attrs.isRegularFile()) {
+                        if (filter != null && !filter.acceptFile(entry.toFile(), attrs.size(), rules)) {
+                            continue;
+                        }
+                        final long pushStart = metrics != null ? System.nanoTime() : 0;
+                        taskQueue.push(Nio2FileListing.createSearchTask(entry, attrs, device));
+                        if (metrics != null) {
+                            pushNanos += System.nanoTime() - pushStart;
+                        }
+                    }
+                }
+            } finally {
+                try {
+                    entries.close();
+                } catch (IOException ioe) { /* ignore silently */ }
+            }
+            return pushNanos;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.cache;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent cache of search results: (path, pattern hash) -> (size, modification time, match/no-match).
+ *
+ * <p>Cached result is valid only while file size and modification time are the same. Cache is bounded, least
+ * recently used entries are evicted. Cache is stored in binary file in LRU order (eldest first), so recency is
+ * preserved between runs.
+ *
+ * <p>Cache is thread-safe.
+ */
+public class SearchResultCache {
+    public static final int DEFAULT_MAX_ENTRIES = 1 << 20;
+    private static final Logger logger = Logger.getLogger(SearchResultCache.class);
+    private static final int MAGIC = 0x46535243;
+    private static final int VERSION = 1;
+
+    private final int maxEntries;
+    private final LinkedHashMap<Key, Value> entries;
+    private long hits;
+    private long misses;
+
+    public SearchResultCache(final int maxEntries) throws IllegalArgumentException {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries shall be greater than zero");
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Key, Value>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Value> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Compute pattern hash (64-bit FNV-1a).
+     *
+     * @param patternBytes Pattern
+     * @return Pattern hash
+     */
+    public static long hashPattern(byte[] patternBytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : patternBytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Compute hash of pattern and matching options, results of different options are cached separately.
+     *
+     * @param patternBytes Pattern
+     * @param caseInsensitive Case-insensitive matching
+     * @param allEncodings Pattern is matched in all encodings
+     * @param skipBinaryFiles Binary files are not searched (reported as not matched)
+     * @return Pattern hash (same as {@link #hashPattern(byte[])} for exact matching of all files)
+     */
+    public static long hashPattern(byte[] patternBytes, boolean caseInsensitive, boolean allEncodings,
+                                   boolean skipBinaryFiles) {
+        long hash = hashPattern(patternBytes);
+        if (caseInsensitive || allEncodings || skipBinaryFiles) {
+            hash ^= (caseInsensitive ? 1 : 0) | (allEncodings ? 2 : 0) | (skipBinaryFiles ? 4 : 0);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Get cached result.
+     *
+     * @param path Absolute file path
+     * @param patternHash Pattern hash
+     * @param size Current file size
+     * @param lastModified Current file modification time
+     * @return {@link Boolean#TRUE} if pattern was found, {@link Boolean#FALSE} if not found, null if there is no
+     *  valid cached result
+     */
+    public synchronized Boolean get(String path, long patternHash, long size, long lastModified) {
+        final Value value = entries.get(new Key(path, patternHash));
+        if (value == null || value.size != size || value.lastModified != lastModified) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return value.matched;
+    }
+
+    /**
+     * Put search result.
+     *
+     * @param path Absolute file path
+     * @param patternHash Pattern hash
+     * @param size File size
+     * @param lastModified File modification time
+     * @param matched true if pattern was found
+     */
+    public synchronized void put(String path, long patternHash, long size, long lastModified, boolean matched) {
+        entries.put(new Key(path, patternHash), new Value(size, lastModified, matched));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Load cache from file. If file doesn't exist or can't be read, empty cache is returned.
+     *
+     * @param cacheFile Cache file
+     * @param maxEntries Max count of entries
+     * @return Cache
+     */
+    public static SearchResultCache load(File cacheFile, int maxEntries) {
+        final SearchResultCache cache = new SearchResultCache(maxEntries);
+        if (!cacheFile.isFile()) {
+            return cache;
+        }
+
+        try {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 65536));
+            try {
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                    logger.warn("Unsupported cache file " + cacheFile + ", ignoring");
+                    return cache;
+                }
+                final int count = input.readInt();
+                for (int i = 0; i < count; i++) {
+                    final String path = input.readUTF();
+                    final long patternHash = input.readLong();
+                    final long size = input.readLong();
+                    final long lastModified = input.readLong();
+                    final boolean matched = input.readBoolean();
+                    cache.entries.put(new Key(path, patternHash), new Value(size, lastModified, matched));
+                }
+            } finally {
+                try {
+                    input.close();
+                } catch (IOException ioe) { /* ignore silently */ }
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to read cache file " + cacheFile + ", ignoring", e);
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Save cache to file. Cache is written to temporary file first and then renamed.
+     *
+     * @param cacheFile Cache file
+     * @throws IOException if cache can't be written
+     */
+    public synchronized void save(File cacheFile) throws IOException {
+        final File tempFile = new File(cacheFile.getPath() + ".tmp");
+        final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 65536));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(entries.size());
+            for (Map.Entry<Key, Value> entry : entries.entrySet()) {
+                output.writeUTF(entry.getKey().path);
+                output.writeLong(entry.getKey().patternHash);
+                output.writeLong(entry.getValue().size);
+                output.writeLong(entry.getValue().lastModified);
+                output.writeBoolean(entry.getValue().matched);
+            }
+            output.close();
+        } finally {
+            try {
+                output.close();
+            } catch (IOException ioe) { /* ignore silently */ }
+        }
+
+        if (!tempFile.renameTo(cacheFile)) {
+            // Rename over existing file may fail on some platforms
+            if (!cacheFile.delete() || !tempFile.renameTo(cacheFile)) {
+                throw new IOException("Unable to write cache file " + cacheFile);
+            }
+        }
+    }
+
+    private static class Key {
+        private final String path;
+        private final long patternHash;
+
+        Key(String path, long patternHash) {
+            this.path = path;
+            this.patternHash = patternHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return patternHash == key.patternHash && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * path.hashCode() + (int) (patternHash ^ (patternHash >>> 32));
+        }
+    }
+
+    private static class Value {
+        private final long size;
+        private final long lastModified;
+        private final boolean matched;
+
+        Value(long size, long lastModified, boolean matched) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.matched = matched;
+        }
+    }
+}
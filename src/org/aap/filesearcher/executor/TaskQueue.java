@@ -0,0 +1,19 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor;
+
+/**
+ * Task queue interface: tasks pushed by producers are pulled by consumers.
+ */
+public interface TaskQueue<T> extends TaskAcceptor<T>, TaskSupplier<T> {
+    /**
+     * Get current queue depth. Value is approximate (queue could be changed concurrently), it's intended for
+     * monitoring and heuristics only.
+     *
+     * @return Count of tasks in queue.
+     */
+    int size();
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.executor.TaskQueue;
+import org.aap.filesearcher.stats.SearchMetrics;
+import org.aap.filesearcher.util.ExecutorThread;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Pool of {@link TaskRunner} threads which size is adjusted while search is running.
+ *
+ * <p>Controller thread samples throughput (tasks completed per interval), task queue depth and share of read time in
+ * scan time (from {@link SearchMetrics}) and climbs to the pool size with the best throughput:
+ * <ul>
+ *     <li>empty queue means the listing is the bottleneck, pool is shrunk;</li>
+ *     <li>otherwise pool is grown while each step improves throughput, step which doesn't is reverted and the size is
+ *     kept for a few intervals before the next probe;</li>
+ *     <li>I/O-bound scan (reads take most of the time) grows by half of the pool, CPU-bound one grows by single thread
+ *     and not beyond count of processors.</li>
+ * </ul>
+ * Every change of the size is logged with the numbers it's based on.
+ *
+ * @param <T> Task type
+ */
+public class AdaptiveThreadPool<T> {
+    private final static Logger logger = Logger.getLogger(AdaptiveThreadPool.class);
+    public static final int DEFAULT_INITIAL_THREADS = 2;
+    public static final int DEFAULT_MAX_THREADS = 64;
+    public static final long DEFAULT_INTERVAL = 500;
+    /** Relative throughput change treated as significant */
+    private static final double SIGNIFICANT_CHANGE = 0.05;
+    private static final int HOLD_INTERVALS = 4;
+    private static final double IO_BOUND_SHARE = 0.5;
+    private static final double CPU_BOUND_SHARE = 0.2;
+
+    private enum Action { HOLD, GROW, SHRINK }
+
+    private final TaskQueue<T> taskQueue;
+    private final TaskExecutor<T> taskExecutor;
+    private final int maxThreads;
+    private final long interval;
+    private final SearchMetrics metrics;
+    private final int processors = Runtime.getRuntime().availableProcessors();
+
+    /** All started threads (including stopped ones) */
+    private final List<ExecutorThread<T>> threads = new ArrayList<ExecutorThread<T>>();
+    /** Running threads, the last started is stopped first */
+    private final LinkedList<ExecutorThread<T>> activeThreads = new LinkedList<ExecutorThread<T>>();
+    private final Thread controllerThread;
+    private volatile boolean finished;
+
+    // Controller state, accessed by controller thread only
+    private long lastTime;
+    private long lastCompleted;
+    private long lastReadNanos;
+    private long lastMatchNanos;
+    private double lastThroughput;
+    private Action lastAction = Action.HOLD;
+    private int lastStep;
+    private int holdIntervals;
+
+    /**
+     * @param taskQueue Task queue (shared by all runners, its depth is monitored)
+     * @param taskExecutor Task executor (shall be thread-safe)
+     * @param initialThreads Initial count of threads
+     * @param maxThreads Max count of threads
+     * @param interval Interval between decisions in milliseconds
+     * @throws IllegalArgumentException if thread counts or interval are invalid
+     */
+    public AdaptiveThreadPool(TaskQueue<T> taskQueue, TaskExecutor<T> taskExecutor, int initialThreads, int maxThreads,
+                              long interval) throws IllegalArgumentException {
+        if (initialThreads <= 0 || maxThreads < initialThreads || interval <= 0) {
+            throw new IllegalArgumentException("Invalid pool parameters: initialThreads=" + initialThreads
+                    + ", maxThreads=" + maxThreads + ", interval=" + interval);
+        }
+        this.taskQueue = taskQueue;
+        this.taskExecutor = taskExecutor;
+        this.maxThreads = maxThreads;
+        this.interval = interval;
+        this.metrics = SearchMetrics.install();
+
+        resize(initialThreads);
+        lastTime = System.nanoTime();
+        controllerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                control();
+            }
+        }, "Pool controller");
+        controllerThread.setDaemon(true);
+        controllerThread.start();
+    }
+
+    /**
+     * Stop adjusting the pool and wait until all threads are completed (end of data shall be signalled to queue).
+     *
+     * @throws InterruptedException if interrupted
+     */
+    public void join() throws InterruptedException {
+        finished = true;
+        controllerThread.interrupt();
+        controllerThread.join();
+        for (ExecutorThread<T> t : getThreads()) {
+            t.join();
+        }
+    }
+
+    /**
+     * @return All threads started by the pool.
+     */
+    public synchronized List<ExecutorThread<T>> getThreads() {
+        return new ArrayList<ExecutorThread<T>>(threads);
+    }
+
+    public synchronized int getPoolSize() {
+        return activeThreads.size();
+    }
+
+    private void control() {
+        while (!finished) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (!finished) {
+                adjust();
+            }
+        }
+        logger.debug("Pool controller completed, pool size: " + getPoolSize());
+    }
+
+    private void adjust() {
+        final long now = System.nanoTime();
+        final long completed = getTasksCompleted();
+        final long readNanos = metrics.getReadNanos();
+        final long matchNanos = metrics.getMatchNanos();
+        final double throughput = (completed - lastCompleted) * 1e9 / Math.max(1, now - lastTime);
+        final long scanNanos = (readNanos - lastReadNanos) + (matchNanos - lastMatchNanos);
+        final double readShare = scanNanos > 0 ? (double) (readNanos - lastReadNanos) / scanNanos : -1;
+        final int depth = taskQueue.size();
+        final int size = getPoolSize();
+
+        Action action = Action.HOLD;
+        int step = 0;
+        String reason;
+        if (depth == 0) {
+            reason = "queue is empty, listing is the bottleneck";
+            if (size > 1) {
+                action = Action.SHRINK;
+                step = 1;
+            }
+        } else if (holdIntervals > 0) {
+            holdIntervals--;
+            reason = "holding after reverted step";
+        } else if (lastAction == Action.GROW && throughput < lastThroughput * (1 + SIGNIFICANT_CHANGE)) {
+            reason = "no gain from the last growth";
+            action = Action.SHRINK;
+            step = lastStep;
+            holdIntervals = HOLD_INTERVALS;
+        } else if (lastAction == Action.SHRINK && throughput < lastThroughput * (1 - SIGNIFICANT_CHANGE)) {
+            reason = "throughput dropped after the last shrink";
+            action = Action.GROW;
+            step = lastStep;
+            holdIntervals = HOLD_INTERVALS;
+        } else {
+            final boolean cpuBound = readShare >= 0 && readShare < CPU_BOUND_SHARE;
+            final int limit = cpuBound ? Math.min(maxThreads, Math.max(processors, 1)) : maxThreads;
+            reason = cpuBound ? "tasks are queued, matching dominates" : "tasks are queued";
+            if (size < limit) {
+                action = Action.GROW;
+                step = Math.min(limit - size, readShare > IO_BOUND_SHARE ? Math.max(1, size / 2) : 1);
+            }
+        }
+
+        final int newSize = action == Action.GROW ? size + step : action == Action.SHRINK ? size - step : size;
+        final String measurements = String.format("throughput: %.0f tasks/s (was %.0f), queue depth: %d, read time: %s",
+                throughput, lastThroughput, depth, readShare >= 0 ? String.format("%.0f%%", readShare * 100) : "n/a");
+        if (newSize != size) {
+            logger.info(String.format("Pool size %d -> %d: %s; %s", size, newSize, reason, measurements));
+            resize(newSize);
+        } else if (logger.isDebugEnabled()) {
+            logger.debug(String.format("Pool size %d kept: %s; %s", size, reason, measurements));
+        }
+
+        lastAction = newSize > size ? Action.GROW : newSize < size ? Action.SHRINK : Action.HOLD;
+        lastStep = Math.abs(newSize - size);
+        lastTime = now;
+        lastCompleted = completed;
+        lastReadNanos = readNanos;
+        lastMatchNanos = matchNanos;
+        lastThroughput = throughput;
+    }
+
+    private synchronized void resize(int newSize) {
+        while (activeThreads.size() < newSize) {
+            final TaskRunner<T> taskRunner = new TaskRunner<T>(taskQueue, taskExecutor);
+            final ExecutorThread<T> t = new ExecutorThread<T>(taskRunner, "Executor #" + threads.size());
+            t.start();
+            threads.add(t);
+            activeThreads.addLast(t);
+        }
+        while (activeThreads.size() > newSize) {
+            activeThreads.removeLast().getTaskRunner().requestStop();
+        }
+    }
+
+    private synchronized long getTasksCompleted() {
+        long completed = 0;
+        for (ExecutorThread<T> t : threads) {
+            completed += t.getTaskRunner().getTasksProcessed();
+        }
+        return completed;
+    }
+}
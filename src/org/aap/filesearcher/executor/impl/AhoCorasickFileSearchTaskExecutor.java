@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.MultiPatternMatchBean;
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.stats.SearchMetrics;
+import org.aap.filesearcher.search.AhoCorasickAutomaton;
+import org.aap.filesearcher.search.BinaryDetector;
+import org.aap.filesearcher.search.ByteEquivalence;
+import org.aap.filesearcher.util.BufferPool;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Multi-pattern search with Aho–Corasick automaton (see {@link AhoCorasickAutomaton}).
+ *
+ * <p>Each file is read once, all patterns found in the file are reported in single
+ * {@link MultiPatternMatchBean}. Reading stops as soon as every pattern is found.
+ */
+public class AhoCorasickFileSearchTaskExecutor implements TaskExecutor<FileSearchBean> {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    private final AhoCorasickAutomaton automaton;
+    private final TaskAcceptor<MultiPatternMatchBean> resultCollector;
+    private final int bufferSize;
+    private final BufferPool<byte[]> buffers = new BufferPool<byte[]>() {
+        @Override
+        protected byte[] create() {
+            return new byte[bufferSize];
+        }
+    };
+    private boolean skipBinaryFiles;
+
+    public AhoCorasickFileSearchTaskExecutor(byte[][] patterns, TaskAcceptor<MultiPatternMatchBean> resultCollector) {
+        this(patterns, resultCollector, DEFAULT_BUFFER_SIZE);
+    }
+
+    public AhoCorasickFileSearchTaskExecutor(byte[][] patterns, TaskAcceptor<MultiPatternMatchBean> resultCollector,
+                                             int bufferSize) {
+        this(patterns, resultCollector, bufferSize, null);
+    }
+
+    /**
+     * @param patterns Patterns
+     * @param resultCollector Collector of matched patterns
+     * @param bufferSize Read buffer size
+     * @param equivalence Byte equivalence classes (null - exact matching)
+     */
+    public AhoCorasickFileSearchTaskExecutor(byte[][] patterns, TaskAcceptor<MultiPatternMatchBean> resultCollector,
+                                             int bufferSize, ByteEquivalence equivalence) {
+        this.automaton = new AhoCorasickAutomaton(patterns, equivalence);
+        this.resultCollector = resultCollector;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param skipBinaryFiles Stop reading file after the first block if it looks like binary data
+     */
+    public void setSkipBinaryFiles(boolean skipBinaryFiles) {
+        this.skipBinaryFiles = skipBinaryFiles;
+    }
+
+    @Override
+    public void execute(FileSearchBean task) throws Exception {
+        final SearchMetrics.ScanTimer timer = SearchMetrics.startScanTimer();
+        final FileInputStream fileInputStream = new FileInputStream(task.getInputFile());
+        if (timer != null) {
+            timer.opened();
+        }
+        final boolean[] matched = new boolean[automaton.getPatternCount()];
+        int matchedCount = 0;
+
+        final byte[] buffer = buffers.acquire();
+        try {
+            int state = automaton.getInitialState();
+            boolean firstBlock = skipBinaryFiles;
+            int bytesRead;
+            while (matchedCount < matched.length && (bytesRead = fileInputStream.read(buffer)) != -1) {
+                if (timer != null) {
+                    timer.read(bytesRead);
+                }
+                if (firstBlock) {
+                    firstBlock = false;
+                    if (BinaryDetector.looksBinary(buffer, 0, bytesRead)) {
+                        return;
+                    }
+                }
+                for (int i = 0; i < bytesRead; i++) {
+                    state = automaton.next(state, buffer[i]);
+                    if (automaton.hasOutput(state)) {
+                        int s = automaton.getOutput(state) >= 0 ? state : automaton.getOutputLink(state);
+                        while (s >= 0) {
+                            final int pattern = automaton.getOutput(s);
+                            if (!matched[pattern]) {
+                                // Duplicate patterns share the state, all of them are matched
+                                for (int d = pattern; d >= 0; d = automaton.getNextDuplicate(d)) {
+                                    matched[d] = true;
+                                    matchedCount++;
+                                }
+                            }
+                            s = automaton.getOutputLink(s);
+                        }
+                    }
+                }
+                if (timer != null) {
+                    timer.matched();
+                }
+            }
+        } finally {
+            buffers.release(buffer);
+            try {
+                fileInputStream.close();
+            } catch(IOException ioe) { /* ignore silently */ }
+            if (timer != null) {
+                timer.done();
+            }
+        }
+
+        if (matchedCount > 0) {
+            final int[] matchedPatterns = new int[matchedCount];
+            for (int i = 0, k = 0; i < matched.length; i++) {
+                if (matched[i]) {
+                    matchedPatterns[k++] = i;
+                }
+            }
+            resultCollector.push(new MultiPatternMatchBean(task.getInputFile(), matchedPatterns));
+        }
+    }
+}
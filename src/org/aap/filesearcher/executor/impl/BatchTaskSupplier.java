@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.executor.TaskSupplier;
+
+import java.util.List;
+
+/**
+ * Task supplier which pulls whole batch of tasks from the queue of batches and then returns its tasks one by one
+ * without touching the queue.
+ *
+ * <p>Not thread-safe: one instance per consumer thread shall be used.
+ *
+ * @param <T> Task type
+ * @see BatchingTaskAcceptor
+ */
+public class BatchTaskSupplier<T> implements TaskSupplier<T> {
+    private final TaskSupplier<List<T>> batchSupplier;
+    private List<T> batch;
+    private int batchIndex;
+
+    public BatchTaskSupplier(TaskSupplier<List<T>> batchSupplier) {
+        this.batchSupplier = batchSupplier;
+    }
+
+    @Override
+    public T pull() throws InterruptedException {
+        while (batch == null || batchIndex >= batch.size()) {
+            batch = batchSupplier.pull();
+            batchIndex = 0;
+            if (batch == null) {
+                // End of data
+                return null;
+            }
+        }
+
+        final T task = batch.get(batchIndex);
+        batch.set(batchIndex++, null);
+        return task;
+    }
+}
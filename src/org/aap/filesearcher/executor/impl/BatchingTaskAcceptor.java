@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.executor.TaskQueue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Task acceptor which groups tasks into batches and pushes whole batches to the queue of batches (so queue
+ * synchronization and consumer wake-up is paid once per batch instead of once per task).
+ *
+ * <p>Batch size adapts to the depth of the batch queue: if queue is almost empty (consumers are starving)
+ * pending batch is flushed immediately and batch size is halved, if queue is deep batch size is doubled up to
+ * maximum. So batches are big while listing is ahead of consumers and small when consumers wait for tasks.
+ *
+ * <p>Each producer thread fills its own batch, all pending batches are flushed on {@link #signalEndOfData()}
+ * (which shall be called after all producers finished).
+ *
+ * @param <T> Task type
+ * @see BatchTaskSupplier
+ */
+public class BatchingTaskAcceptor<T> implements TaskAcceptor<T> {
+    private final TaskQueue<List<T>> batchQueue;
+    private final int maxBatchSize;
+    private final int lowWaterMark;
+    private final int highWaterMark;
+    private final List<BatchHolder<T>> batchHolders = new LinkedList<BatchHolder<T>>();
+    private final ThreadLocal<BatchHolder<T>> threadBatch = new ThreadLocal<BatchHolder<T>>();
+    private volatile int batchSize = 1;
+
+    /**
+     * @param batchQueue Queue of batches
+     * @param maxBatchSize Max count of tasks in batch
+     * @param lowWaterMark Queue depth (in batches) below which batches are flushed immediately, usually count of
+     *                     consumers
+     * @param highWaterMark Queue depth (in batches) above which batch size grows
+     * @throws IllegalArgumentException if max batch size equals or less zero
+     */
+    public BatchingTaskAcceptor(TaskQueue<List<T>> batchQueue, int maxBatchSize, int lowWaterMark, int highWaterMark)
+            throws IllegalArgumentException {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize shall be greater than zero");
+        }
+        this.batchQueue = batchQueue;
+        this.maxBatchSize = maxBatchSize;
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = Math.max(lowWaterMark, highWaterMark);
+    }
+
+    @Override
+    public void push(T task) throws IllegalArgumentException, InterruptedException {
+        if (task == null) {
+            throw new IllegalArgumentException("Task shall not be null");
+        }
+
+        BatchHolder<T> holder = threadBatch.get();
+        if (holder == null) {
+            holder = new BatchHolder<T>(maxBatchSize);
+            synchronized (batchHolders) {
+                batchHolders.add(holder);
+            }
+            threadBatch.set(holder);
+        }
+
+        holder.batch.add(task);
+        if (holder.batch.size() >= batchSize || batchQueue.size() < lowWaterMark) {
+            flush(holder);
+        }
+    }
+
+    @Override
+    public void signalEndOfData() {
+        try {
+            synchronized (batchHolders) {
+                for (BatchHolder<T> holder : batchHolders) {
+                    if (!holder.batch.isEmpty()) {
+                        flush(holder);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            batchQueue.signalEndOfData();
+        }
+    }
+
+    /**
+     * @return Current target batch size.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    private void flush(BatchHolder<T> holder) throws InterruptedException {
+        final List<T> batch = holder.batch;
+        holder.batch = new ArrayList<T>(maxBatchSize);
+
+        final int depth = batchQueue.size();
+        if (depth < lowWaterMark) {
+            batchSize = Math.max(1, batchSize / 2);
+        } else if (depth > highWaterMark) {
+            batchSize = Math.min(maxBatchSize, batchSize * 2);
+        }
+
+        batchQueue.push(batch);
+    }
+
+    /**
+     * Pending batch of one producer thread.
+     */
+    private static class BatchHolder<T> {
+        private List<T> batch;
+
+        BatchHolder(int capacity) {
+            batch = new ArrayList<T>(capacity);
+        }
+    }
+}
@@ -5,8 +5,7 @@
 
 package org.aap.filesearcher.executor.impl;
 
-import org.aap.filesearcher.executor.TaskAcceptor;
-import org.aap.filesearcher.executor.TaskSupplier;
+import org.aap.filesearcher.executor.TaskQueue;
 
 import java.util.LinkedList;
 
@@ -19,7 +18,7 @@ import java.util.LinkedList;
  * @param <T> Task type
  * @see #BlockingTaskQueue(int)
  */
-public class BlockingTaskQueue<T> implements TaskAcceptor<T>, TaskSupplier<T> {
+public class BlockingTaskQueue<T> implements TaskQueue<T> {
     private final LinkedList<T> taskQueue;
     private final int maxSize;
     private boolean endOfData;
@@ -28,6 +27,9 @@ public class BlockingTaskQueue<T> implements TaskAcceptor<T>, TaskSupplier<T> {
     private final Object sizeUpdateLock = new Object();
     private int currentSize = 0;
 
+    /** Queue size for monitoring, updated under queue lock */
+    private volatile int queueSize = 0;
+
     /**
      * Create blocking queue with {@link Integer#MAX_VALUE} as max queue size.
      * @see #BlockingTaskQueue(int)
@@ -66,6 +68,36 @@ public class BlockingTaskQueue<T> implements TaskAcceptor<T>, TaskSupplier<T> {
 
             if (taskQueue.size() > 0) {
                 T task = taskQueue.removeFirst();
+                queueSize = taskQueue.size();
+                notifyUpdateSize(taskQueue.size());
+                return task;
+            }
+        }
+        Thread.currentThread().interrupt();
+        return null;
+    }
+
+    /**
+     * Call to this method can be blocked until queue is not empty or timeout expires.
+     *
+     * @param timeoutMillis Max time to wait in milliseconds
+     * @return New object or null on timeout or end of data (thread is interrupted on end of data)
+     * @throws InterruptedException if interrupted
+     */
+    public T pull(long timeoutMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        synchronized (taskQueue) {
+            while (taskQueue.size() == 0 && !endOfData) {
+                final long remainingMillis = (deadline - System.nanoTime()) / 1000000L;
+                if (remainingMillis <= 0) {
+                    return null;
+                }
+                taskQueue.wait(remainingMillis);
+            }
+
+            if (taskQueue.size() > 0) {
+                T task = taskQueue.removeFirst();
+                queueSize = taskQueue.size();
                 notifyUpdateSize(taskQueue.size());
                 return task;
             }
@@ -94,6 +126,7 @@ public class BlockingTaskQueue<T> implements TaskAcceptor<T>, TaskSupplier<T> {
                 if (currentSize < maxSize) {
                     isAdded = true;
                     taskQueue.addLast(task);
+                    queueSize = currentSize + 1;
                     taskQueue.notify();
                 }
             }
@@ -112,6 +145,11 @@ public class BlockingTaskQueue<T> implements TaskAcceptor<T>, TaskSupplier<T> {
         }
     }
 
+    @Override
+    public int size() {
+        return queueSize;
+    }
+
     /**
      * Safely update length of list (due we can't use concurrent).
      * @param newSize new size of list.
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.cache.SearchResultCache;
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.executor.TaskExecutor;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Task executor decorator which uses {@link SearchResultCache}: unchanged files with cached result are not read.
+ *
+ * <p>Delegate executor shall report matches to {@link #getResultCollector()} from the thread which executes the
+ * task (all executors do so), it's how executor learns search result of the file.
+ */
+public class CachingTaskExecutor implements TaskExecutor<FileSearchBean> {
+    private final SearchResultCache cache;
+    private final long patternHash;
+    private final TaskAcceptor<FileSearchBean> resultCollector;
+    private final ThreadLocal<FileSearchBean> lastMatch = new ThreadLocal<FileSearchBean>();
+    private TaskExecutor<FileSearchBean> delegate;
+
+    /**
+     * @param cache Result cache
+     * @param patternHash Hash of the pattern (see {@link SearchResultCache#hashPattern(byte[])})
+     * @param resultCollector Result collector
+     */
+    public CachingTaskExecutor(SearchResultCache cache, long patternHash, final TaskAcceptor<FileSearchBean> resultCollector) {
+        this.cache = cache;
+        this.patternHash = patternHash;
+        this.resultCollector = new TaskAcceptor<FileSearchBean>() {
+            @Override
+            public void push(FileSearchBean task) throws IllegalArgumentException, InterruptedException {
+                lastMatch.set(task);
+                resultCollector.push(task);
+            }
+
+            @Override
+            public void signalEndOfData() {
+                resultCollector.signalEndOfData();
+            }
+        };
+    }
+
+    /**
+     * @return Result collector which shall be used by delegate executor.
+     */
+    public TaskAcceptor<FileSearchBean> getResultCollector() {
+        return resultCollector;
+    }
+
+    /**
+     * @param delegate Executor which performs search on cache miss
+     */
+    public void setDelegate(TaskExecutor<FileSearchBean> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(FileSearchBean task) throws Exception {
+        final File file = task.getInputFile();
+        final String path = file.getAbsolutePath();
+        long size = task.getSize();
+        long lastModified = task.getLastModified();
+        if (size == FileSearchBean.UNKNOWN || lastModified == FileSearchBean.UNKNOWN) {
+            final BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            size = attrs.size();
+            lastModified = attrs.lastModifiedTime().toMillis();
+        }
+
+        final Boolean cached = cache.get(path, patternHash, size, lastModified);
+        if (cached != null) {
+            if (cached) {
+                resultCollector.push(task);
+            }
+            return;
+        }
+
+        lastMatch.remove();
+        delegate.execute(task);
+        final boolean matched = lastMatch.get() == task;
+        lastMatch.remove();
+        cache.put(path, patternHash, size, lastModified, matched);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.FileChunkSearchBean;
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.search.ByteEquivalence;
+import org.aap.filesearcher.search.HorspoolMatcher;
+import org.aap.filesearcher.util.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Executor decorator which searches file chunks (see {@link FileSplittingTaskAcceptor}), whole files are passed to
+ * delegate executor.
+ *
+ * <p>Chunk is read with positional reads from channel shared by all chunks of the file and searched with
+ * {@link HorspoolMatcher}. File is reported once by the first chunk which finds the pattern, remaining chunks of the
+ * file stop at the next block (or don't start at all).
+ *
+ * <p>If binary files are skipped, the first block of the file is checked once per file before any chunk is searched,
+ * so split files are skipped the same way as whole files.
+ */
+public class ChunkedFileSearchTaskExecutor implements TaskExecutor<FileSearchBean> {
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+    private final TaskExecutor<FileSearchBean> delegate;
+    private final HorspoolMatcher matcher;
+    private final TaskAcceptor<FileSearchBean> resultCollector;
+    private final int bufferSize;
+    private final BufferPool<ByteBuffer> byteBuffers = new BufferPool<ByteBuffer>() {
+        @Override
+        protected ByteBuffer create() {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+    };
+    private boolean skipBinaryFiles;
+
+    /**
+     * @param delegate Executor for whole files
+     * @param patternBytes Pattern
+     * @param resultCollector Result collector
+     * @param bufferSize Read buffer size (shall not be smaller than pattern length)
+     */
+    public ChunkedFileSearchTaskExecutor(TaskExecutor<FileSearchBean> delegate, byte[] patternBytes,
+                                         TaskAcceptor<FileSearchBean> resultCollector, int bufferSize) {
+        this(delegate, patternBytes, resultCollector, bufferSize, null);
+    }
+
+    /**
+     * @param delegate Executor for whole files
+     * @param patternBytes Pattern
+     * @param resultCollector Result collector
+     * @param bufferSize Read buffer size (shall not be smaller than pattern length)
+     * @param equivalence Byte equivalence classes (null - exact matching)
+     */
+    public ChunkedFileSearchTaskExecutor(TaskExecutor<FileSearchBean> delegate, byte[] patternBytes,
+                                         TaskAcceptor<FileSearchBean> resultCollector, int bufferSize,
+                                         ByteEquivalence equivalence) {
+        if (bufferSize < patternBytes.length) {
+            throw new IllegalArgumentException("bufferSize can't be smaller than pattern length");
+        }
+        this.delegate = delegate;
+        this.matcher = new HorspoolMatcher(patternBytes, equivalence);
+        this.resultCollector = resultCollector;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param skipBinaryFiles Don't search split file if its first block looks like binary data
+     */
+    public void setSkipBinaryFiles(boolean skipBinaryFiles) {
+        this.skipBinaryFiles = skipBinaryFiles;
+    }
+
+    @Override
+    public void execute(FileSearchBean task) throws Exception {
+        if (!(task instanceof FileChunkSearchBean)) {
+            delegate.execute(task);
+            return;
+        }
+
+        final FileChunkSearchBean chunk = (FileChunkSearchBean) task;
+        final FileChunkSearchBean.Group group = chunk.getGroup();
+        try {
+            if (skipBinaryFiles && group.looksBinary(bufferSize)) {
+                return;
+            }
+            if (!group.isDone() && searchChunk(group.getChannel(), chunk, group) && group.markFound()) {
+                resultCollector.push(group.getFile());
+            }
+        } finally {
+            group.release();
+        }
+    }
+
+    private boolean searchChunk(FileChannel fc, FileChunkSearchBean chunk, FileChunkSearchBean.Group group)
+            throws Exception {
+        final ByteBuffer byteBuffer = byteBuffers.acquire();
+        try {
+            final int overlap = matcher.getPatternLength() - 1;
+            final long end = chunk.getOffset() + chunk.getLength();
+            long position = chunk.getOffset();
+            byteBuffer.clear();
+            while (position < end && !group.isDone()) {
+                // Don't read past the chunk end
+                byteBuffer.limit((int) Math.min(byteBuffer.capacity(), byteBuffer.position() + (end - position)));
+                final int bytesRead = fc.read(byteBuffer, position);
+                if (bytesRead == -1) {
+                    break;
+                }
+                position += bytesRead;
+
+                byteBuffer.flip();
+                final int limit = byteBuffer.limit();
+                if (matcher.indexOf(byteBuffer, 0, limit) >= 0) {
+                    return true;
+                }
+                byteBuffer.position(limit - Math.min(overlap, limit));
+                byteBuffer.compact();
+            }
+            return false;
+        } finally {
+            byteBuffers.release(byteBuffer);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.executor.TaskQueue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Task queue with separate queue and concurrency limit per storage device (see {@link FileSearchBean#getDevice()}),
+ * so one pool of executor threads doesn't thrash a spinning disk and still saturates fast devices.
+ *
+ * <p>Threads are not bound to devices: a thread takes task from the next device (round-robin) which has queued
+ * tasks and spare capacity, so threads idle on a saturated device steal work from others. Task is counted as
+ * running until the same thread pulls again, so executor threads shall pull until end of data (runner must not be
+ * stopped in the middle, as adaptive pool does).
+ *
+ * <p>Call to {@link #push(FileSearchBean)} is blocked while queue of the task device is full.
+ */
+public class DeviceTaskQueue implements TaskQueue<FileSearchBean> {
+    private final Map<Object, DeviceQueue> devices = new HashMap<Object, DeviceQueue>();
+    /** Devices in order of appearance, for round-robin */
+    private final List<DeviceQueue> deviceList = new ArrayList<DeviceQueue>();
+    private final Map<Object, Integer> limits = new HashMap<Object, Integer>();
+    private final int maxSizePerDevice;
+    private final int defaultLimit;
+    /** Device of the task being executed by current thread */
+    private final ThreadLocal<DeviceQueue> runningDevice = new ThreadLocal<DeviceQueue>();
+    private int nextDevice;
+    private int totalSize;
+    private boolean endOfData;
+
+    /** Queue size for monitoring, updated under queue lock */
+    private volatile int queueSize = 0;
+
+    /**
+     * @param maxSizePerDevice Max count of queued tasks of one device
+     * @param defaultLimit Max count of concurrently searched files of one device (if it's not set for device)
+     * @throws IllegalArgumentException if size or limit equals or less zero
+     */
+    public DeviceTaskQueue(int maxSizePerDevice, int defaultLimit) throws IllegalArgumentException {
+        if (maxSizePerDevice <= 0) {
+            throw new IllegalArgumentException("maxSizePerDevice shall be greater than zero");
+        }
+        if (defaultLimit <= 0) {
+            throw new IllegalArgumentException("defaultLimit shall be greater than zero");
+        }
+        this.maxSizePerDevice = maxSizePerDevice;
+        this.defaultLimit = defaultLimit;
+    }
+
+    /**
+     * Set concurrency limit of the device, shall be called before tasks are pushed.
+     *
+     * @param device Device (null - files of unknown device)
+     * @param limit Max count of concurrently searched files
+     * @throws IllegalArgumentException if limit equals or less zero
+     */
+    public void setLimit(Object device, int limit) throws IllegalArgumentException {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit shall be greater than zero");
+        }
+        synchronized (devices) {
+            limits.put(device, limit);
+        }
+    }
+
+    /**
+     * Call to this method can be blocked if no device has both queued tasks and spare capacity.
+     *
+     * @return New task or null on end of data (thread is interrupted)
+     * @throws InterruptedException if interrupted
+     */
+    @Override
+    public FileSearchBean pull() throws InterruptedException {
+        synchronized (devices) {
+            // Previous task of this thread is completed
+            final DeviceQueue previous = runningDevice.get();
+            if (previous != null) {
+                runningDevice.remove();
+                previous.running--;
+                devices.notifyAll();
+            }
+
+            while (true) {
+                final int count = deviceList.size();
+                for (int i = 0; i < count; i++) {
+                    final DeviceQueue device = deviceList.get((nextDevice + i) % count);
+                    if (!device.tasks.isEmpty() && device.running < device.limit) {
+                        nextDevice = (nextDevice + i + 1) % count;
+                        final FileSearchBean task = device.tasks.removeFirst();
+                        device.running++;
+                        device.tasksPulled++;
+                        device.maxRunning = Math.max(device.maxRunning, device.running);
+                        queueSize = --totalSize;
+                        runningDevice.set(device);
+                        // Producer may wait for free space
+                        devices.notifyAll();
+                        return task;
+                    }
+                }
+                if (endOfData && totalSize == 0) {
+                    break;
+                }
+                devices.wait();
+            }
+        }
+        Thread.currentThread().interrupt();
+        return null;
+    }
+
+    /**
+     * Call to this method can be blocked if queue of the task device is full.
+     *
+     * @throws IllegalArgumentException if task is null
+     * @throws InterruptedException if interrupted
+     */
+    @Override
+    public void push(FileSearchBean task) throws IllegalArgumentException, InterruptedException {
+        if (task == null) {
+            throw new IllegalArgumentException("Task shall not be null");
+        }
+
+        synchronized (devices) {
+            DeviceQueue device = devices.get(task.getDevice());
+            if (device == null) {
+                final Integer limit = limits.get(task.getDevice());
+                device = new DeviceQueue(task.getInputFile(), limit != null ? limit : defaultLimit);
+                devices.put(task.getDevice(), device);
+                deviceList.add(device);
+            }
+            while (device.tasks.size() >= maxSizePerDevice) {
+                devices.wait();
+            }
+            device.tasks.addLast(task);
+            queueSize = ++totalSize;
+            devices.notifyAll();
+        }
+    }
+
+    @Override
+    public void signalEndOfData() {
+        synchronized (devices) {
+            endOfData = true;
+            devices.notifyAll();
+        }
+    }
+
+    @Override
+    public int size() {
+        return queueSize;
+    }
+
+    /**
+     * @return Statistics of each device in order of appearance
+     */
+    public List<DeviceStats> getDeviceStats() {
+        final List<DeviceStats> result = new ArrayList<DeviceStats>();
+        synchronized (devices) {
+            for (DeviceQueue device : deviceList) {
+                result.add(new DeviceStats(device.sampleFile, device.limit, device.tasksPulled, device.maxRunning));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Statistics of one device.
+     */
+    public static class DeviceStats {
+        private final File sampleFile;
+        private final int limit;
+        private final long tasksProcessed;
+        private final int maxRunning;
+
+        DeviceStats(File sampleFile, int limit, long tasksProcessed, int maxRunning) {
+            this.sampleFile = sampleFile;
+            this.limit = limit;
+            this.tasksProcessed = tasksProcessed;
+            this.maxRunning = maxRunning;
+        }
+
+        /**
+         * @return First file of the device
+         */
+        public File getSampleFile() {
+            return sampleFile;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public long getTasksProcessed() {
+            return tasksProcessed;
+        }
+
+        /**
+         * @return Max count of concurrently searched files
+         */
+        public int getMaxRunning() {
+            return maxRunning;
+        }
+    }
+
+    /**
+     * Queue and counters of one device, guarded by queue lock.
+     */
+    private static class DeviceQueue {
+        private final LinkedList<FileSearchBean> tasks = new LinkedList<FileSearchBean>();
+        private final File sampleFile;
+        private final int limit;
+        private int running;
+        private int maxRunning;
+        private long tasksPulled;
+
+        DeviceQueue(File sampleFile, int limit) {
+            this.sampleFile = sampleFile;
+            this.limit = limit;
+        }
+    }
+}
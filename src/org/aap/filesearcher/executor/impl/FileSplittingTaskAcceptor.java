@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.FileChunkSearchBean;
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.executor.TaskAcceptor;
+
+/**
+ * Task acceptor decorator which splits files bigger than threshold into chunks, so one huge file is searched by
+ * several executor threads. Neighbour chunks overlap by {@code patternLength - 1} bytes, so matches crossing chunk
+ * boundary are not lost.
+ *
+ * @see ChunkedFileSearchTaskExecutor
+ */
+public class FileSplittingTaskAcceptor implements TaskAcceptor<FileSearchBean> {
+    private final TaskAcceptor<FileSearchBean> taskAcceptor;
+    private final long chunkSize;
+    private final int overlap;
+
+    /**
+     * @param taskAcceptor Task acceptor
+     * @param chunkSize Files bigger than this size are split into chunks of this size
+     * @param patternLength Pattern length
+     * @throws IllegalArgumentException if chunk size is not greater than pattern length
+     */
+    public FileSplittingTaskAcceptor(TaskAcceptor<FileSearchBean> taskAcceptor, long chunkSize, int patternLength)
+            throws IllegalArgumentException {
+        if (chunkSize <= patternLength) {
+            throw new IllegalArgumentException("chunkSize shall be greater than pattern length");
+        }
+        this.taskAcceptor = taskAcceptor;
+        this.chunkSize = chunkSize;
+        this.overlap = Math.max(0, patternLength - 1);
+    }
+
+    @Override
+    public void push(FileSearchBean task) throws IllegalArgumentException, InterruptedException {
+        final long size = task.getSize() != FileSearchBean.UNKNOWN ? task.getSize() : task.getInputFile().length();
+        if (size <= chunkSize) {
+            taskAcceptor.push(task);
+            return;
+        }
+
+        final int chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+        final FileSearchBean file = task.getSize() != FileSearchBean.UNKNOWN
+                ? task : new FileSearchBean(task.getInputFile(), size, task.getLastModified(), task.getDevice());
+        final FileChunkSearchBean.Group group = new FileChunkSearchBean.Group(file, chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            final long offset = i * chunkSize;
+            final long length = Math.min(chunkSize + overlap, size - offset);
+            taskAcceptor.push(new FileChunkSearchBean(group, offset, length));
+        }
+    }
+
+    @Override
+    public void signalEndOfData() {
+        taskAcceptor.signalEndOfData();
+    }
+}
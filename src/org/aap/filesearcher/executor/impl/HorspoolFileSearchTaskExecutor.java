@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.search.BinaryDetector;
+import org.aap.filesearcher.search.ByteEquivalence;
+import org.aap.filesearcher.search.HorspoolMatcher;
+import org.aap.filesearcher.stats.SearchMetrics;
+import org.aap.filesearcher.util.BufferPool;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Boyer–Moore–Horspool substring pattern searching algorithm implementation (see {@link HorspoolMatcher}).
+ *
+ * <p>File is read by blocks into per-thread buffer (heap array or direct {@link ByteBuffer}). Last
+ * {@code m - 1} bytes of each block are moved to the buffer start before the next read, so matches straddling
+ * block boundary are not lost.
+ */
+public class HorspoolFileSearchTaskExecutor implements TaskExecutor<FileSearchBean> {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    private final HorspoolMatcher matcher;
+    private final TaskAcceptor<FileSearchBean> resultCollector;
+    private final int bufferSize;
+    private final boolean useDirectBuffer;
+    private final BufferPool<byte[]> arrayBuffers = new BufferPool<byte[]>() {
+        @Override
+        protected byte[] create() {
+            return new byte[bufferSize];
+        }
+    };
+    private final BufferPool<ByteBuffer> byteBuffers = new BufferPool<ByteBuffer>() {
+        @Override
+        protected ByteBuffer create() {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+    };
+    private boolean skipBinaryFiles;
+
+    public HorspoolFileSearchTaskExecutor(byte[] patternBytes, TaskAcceptor<FileSearchBean> resultCollector) {
+        this(patternBytes, resultCollector, DEFAULT_BUFFER_SIZE, false);
+    }
+
+    /**
+     * @param patternBytes Pattern
+     * @param resultCollector Result collector
+     * @param bufferSize Size of read buffer (shall not be smaller than pattern length)
+     * @param useDirectBuffer true to read with {@link FileChannel} into direct buffer, false to read into array
+     */
+    public HorspoolFileSearchTaskExecutor(byte[] patternBytes, TaskAcceptor<FileSearchBean> resultCollector,
+                                          int bufferSize, boolean useDirectBuffer) {
+        this(patternBytes, resultCollector, bufferSize, useDirectBuffer, null);
+    }
+
+    /**
+     * @param patternBytes Pattern
+     * @param resultCollector Result collector
+     * @param bufferSize Size of read buffer (shall not be smaller than pattern length)
+     * @param useDirectBuffer true to read with {@link FileChannel} into direct buffer, false to read into array
+     * @param equivalence Byte equivalence classes (null - exact matching)
+     */
+    public HorspoolFileSearchTaskExecutor(byte[] patternBytes, TaskAcceptor<FileSearchBean> resultCollector,
+                                          int bufferSize, boolean useDirectBuffer, ByteEquivalence equivalence) {
+        if (bufferSize < patternBytes.length) {
+            throw new IllegalArgumentException("bufferSize can't be smaller than pattern length");
+        }
+        this.matcher = new HorspoolMatcher(patternBytes, equivalence);
+        this.resultCollector = resultCollector;
+        this.bufferSize = bufferSize;
+        this.useDirectBuffer = useDirectBuffer;
+    }
+
+    /**
+     * @param skipBinaryFiles Stop reading file after the first block if it looks like binary data
+     */
+    public void setSkipBinaryFiles(boolean skipBinaryFiles) {
+        this.skipBinaryFiles = skipBinaryFiles;
+    }
+
+    @Override
+    public void execute(FileSearchBean task) throws Exception {
+        final SearchMetrics.ScanTimer timer = SearchMetrics.startScanTimer();
+        final FileInputStream fileInputStream = new FileInputStream(task.getInputFile());
+        if (timer != null) {
+            timer.opened();
+        }
+        try {
+            final boolean found = useDirectBuffer
+                    ? searchChannel(fileInputStream.getChannel(), timer)
+                    : searchStream(fileInputStream, timer);
+            if (found) {
+                resultCollector.push(task);
+            }
+        } finally {
+            try {
+                fileInputStream.close();
+            } catch(IOException ioe) { /* ignore silently */ }
+            if (timer != null) {
+                timer.done();
+            }
+        }
+    }
+
+    private boolean searchStream(FileInputStream inputStream, SearchMetrics.ScanTimer timer) throws IOException {
+        final byte[] buffer = arrayBuffers.acquire();
+        try {
+            final int overlap = matcher.getPatternLength() - 1;
+            int carry = 0;
+            boolean firstBlock = skipBinaryFiles;
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer, carry, buffer.length - carry)) != -1) {
+                if (timer != null) {
+                    timer.read(bytesRead);
+                }
+                if (firstBlock) {
+                    firstBlock = false;
+                    if (BinaryDetector.looksBinary(buffer, 0, bytesRead)) {
+                        return false;
+                    }
+                }
+                final int limit = carry + bytesRead;
+                if (matcher.indexOf(buffer, 0, limit) >= 0) {
+                    return true;
+                }
+                if (timer != null) {
+                    timer.matched();
+                }
+                carry = Math.min(overlap, limit);
+                System.arraycopy(buffer, limit - carry, buffer, 0, carry);
+            }
+            return false;
+        } finally {
+            arrayBuffers.release(buffer);
+        }
+    }
+
+    private boolean searchChannel(FileChannel fc, SearchMetrics.ScanTimer timer) throws IOException {
+        final ByteBuffer byteBuffer = byteBuffers.acquire();
+        try {
+            final int overlap = matcher.getPatternLength() - 1;
+            byteBuffer.clear();
+            boolean firstBlock = skipBinaryFiles;
+            int bytesRead;
+            while ((bytesRead = fc.read(byteBuffer)) != -1) {
+                if (timer != null) {
+                    timer.read(bytesRead);
+                }
+                byteBuffer.flip();
+                final int limit = byteBuffer.limit();
+                if (firstBlock) {
+                    firstBlock = false;
+                    if (BinaryDetector.looksBinary(byteBuffer, 0, limit)) {
+                        return false;
+                    }
+                }
+                if (matcher.indexOf(byteBuffer, 0, limit) >= 0) {
+                    return true;
+                }
+                if (timer != null) {
+                    timer.matched();
+                }
+                byteBuffer.position(limit - Math.min(overlap, limit));
+                byteBuffer.compact();
+            }
+            return false;
+        } finally {
+            byteBuffers.release(byteBuffer);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.OccurrenceBean;
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.search.BinaryDetector;
+import org.aap.filesearcher.search.ByteEquivalence;
+import org.aap.filesearcher.stats.SearchMetrics;
+import org.aap.filesearcher.util.BufferPool;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Knuth–Morris–Pratt search of all (including overlapping) pattern occurrences.
+ * Complexity: O(m)+O(n)
+ *  where m - length of substring,
+ *  n - length of the searchable text.
+ *
+ * <p>Newlines are counted while matching, so byte offset and line number of each occurrence are known in single
+ * pass. Each occurrence is pushed to result collector as soon as it's found (nothing is accumulated). Lines are
+ * counted by {@code 0x0A} bytes, so text shall be in charset which encodes newline as that single byte (not UTF-16).
+ */
+public class KMPAllOccurrencesTaskExecutor implements TaskExecutor<FileSearchBean> {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    private final byte[] patternBytes;
+    private final int[] failure;
+    private final int patternNewlines;
+    private final int bufferSize;
+    /** Canonical byte for each byte or null for exact matching */
+    private final byte[] foldTable;
+    private final TaskAcceptor<OccurrenceBean> resultCollector;
+    private final BufferPool<byte[]> buffers = new BufferPool<byte[]>() {
+        @Override
+        protected byte[] create() {
+            return new byte[bufferSize];
+        }
+    };
+    private boolean skipBinaryFiles;
+
+    public KMPAllOccurrencesTaskExecutor(byte[] patternBytes, TaskAcceptor<OccurrenceBean> resultCollector) {
+        this(patternBytes, resultCollector, DEFAULT_BUFFER_SIZE);
+    }
+
+    public KMPAllOccurrencesTaskExecutor(byte[] patternBytes, TaskAcceptor<OccurrenceBean> resultCollector, int bufferSize) {
+        this(patternBytes, resultCollector, bufferSize, null);
+    }
+
+    /**
+     * @param patternBytes Pattern
+     * @param resultCollector Collector of occurrences
+     * @param bufferSize Read buffer size
+     * @param equivalence Byte equivalence classes (null - exact matching)
+     */
+    public KMPAllOccurrencesTaskExecutor(byte[] patternBytes, TaskAcceptor<OccurrenceBean> resultCollector, int bufferSize,
+                                         ByteEquivalence equivalence) {
+        if (patternBytes.length == 0) {
+            throw new IllegalArgumentException("Pattern shall not be empty");
+        }
+        this.patternBytes = equivalence != null ? equivalence.canonical(patternBytes) : patternBytes;
+        this.resultCollector = resultCollector;
+        this.bufferSize = bufferSize;
+        this.foldTable = equivalence != null ? equivalence.getTable() : null;
+
+        // Pre-compute failure function, failure[j] - length of the longest proper border of pattern[0..j)
+        final byte[] pattern = this.patternBytes;
+        this.failure = new int[pattern.length + 1];
+        failure[0] = -1;
+        int k = -1;
+        for (int i = 0; i < pattern.length; i++) {
+            while (k >= 0 && pattern[k] != pattern[i]) {
+                k = failure[k];
+            }
+            failure[i + 1] = ++k;
+        }
+
+        // Newlines are counted in text as is
+        int newlines = 0;
+        for (byte b : patternBytes) {
+            if (b == '\n') {
+                newlines++;
+            }
+        }
+        this.patternNewlines = newlines;
+    }
+
+    /**
+     * @param skipBinaryFiles Stop reading file after the first block if it looks like binary data
+     */
+    public void setSkipBinaryFiles(boolean skipBinaryFiles) {
+        this.skipBinaryFiles = skipBinaryFiles;
+    }
+
+    @Override
+    public void execute(FileSearchBean task) throws Exception {
+        final SearchMetrics.ScanTimer timer = SearchMetrics.startScanTimer();
+        final FileInputStream fileInputStream = new FileInputStream(task.getInputFile());
+        if (timer != null) {
+            timer.opened();
+        }
+        final byte[] buffer = buffers.acquire();
+        try {
+            final int m = patternBytes.length;
+            final byte[] fold = foldTable;
+            long position = 0;
+            long newlines = 0;
+            int j = 0;
+            boolean firstBlock = skipBinaryFiles;
+            int bytesRead;
+            while ((bytesRead = fileInputStream.read(buffer)) != -1) {
+                if (timer != null) {
+                    timer.read(bytesRead);
+                }
+                if (firstBlock) {
+                    firstBlock = false;
+                    if (BinaryDetector.looksBinary(buffer, 0, bytesRead)) {
+                        return;
+                    }
+                }
+                for (int i = 0; i < bytesRead; i++) {
+                    final byte b = fold != null ? fold[buffer[i] & 0xff] : buffer[i];
+                    if (buffer[i] == '\n') {
+                        newlines++;
+                    }
+
+                    while (j >= 0 && b != patternBytes[j]) {
+                        j = failure[j];
+                    }
+                    j++;
+
+                    if (j == m) {
+                        final long offset = position + i - m + 1;
+                        resultCollector.push(new OccurrenceBean(task.getInputFile(), offset,
+                                newlines - patternNewlines + 1));
+                        j = failure[j];
+                    }
+                }
+                position += bytesRead;
+                if (timer != null) {
+                    timer.matched();
+                }
+            }
+        } finally {
+            buffers.release(buffer);
+            try {
+                fileInputStream.close();
+            } catch(IOException ioe) { /* ignore silently */ }
+            if (timer != null) {
+                timer.done();
+            }
+        }
+    }
+}
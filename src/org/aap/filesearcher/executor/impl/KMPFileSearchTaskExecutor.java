@@ -8,32 +8,69 @@ package org.aap.filesearcher.executor.impl;
 import org.aap.filesearcher.FileSearchBean;
 import org.aap.filesearcher.executor.TaskAcceptor;
 import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.search.BinaryDetector;
+import org.aap.filesearcher.search.ByteEquivalence;
+import org.aap.filesearcher.search.RareBytePrefilter;
+import org.aap.filesearcher.stats.SearchMetrics;
+import org.aap.filesearcher.util.BufferPool;
 
-import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Knuth–Morris–Pratt algorithm substring pattern searching algorithm implementation.
  * Complexity: O(m)+O(n)
  *  where m - length of substring,
  *  n - length of the searchable text.
+ *
+ * <p>File is read in bulk into per-thread buffer which is scanned with plain array loop, so nothing but the file
+ * stream is allocated per file.
+ *
+ * <p>With {@link ByteEquivalence} pattern and text bytes are compared by canonical bytes (case-insensitive search).
  */
 public class KMPFileSearchTaskExecutor implements TaskExecutor<FileSearchBean> {
     public static final int DEFAULT_BUFFER_SIZE = 8192;
     private final byte[] patternBytes;
     private final int[] kmpNext;
     private final int bufferSize;
+    /** Canonical byte for each byte or null for exact matching */
+    private final byte[] foldTable;
     private final TaskAcceptor<FileSearchBean> resultCollector;
+    private final BufferPool<byte[]> buffers = new BufferPool<byte[]>() {
+        @Override
+        protected byte[] create() {
+            return new byte[bufferSize];
+        }
+    };
+    private boolean skipBinaryFiles;
+    private RareBytePrefilter prefilter;
 
     public KMPFileSearchTaskExecutor(byte[] patternBytes, TaskAcceptor<FileSearchBean> resultCollector) {
         this(patternBytes, resultCollector, DEFAULT_BUFFER_SIZE);
     }
 
     public KMPFileSearchTaskExecutor(byte[] patternBytes, TaskAcceptor<FileSearchBean> resultCollector, int bufferSize) {
+        this(patternBytes, resultCollector, bufferSize, null);
+    }
+
+    /**
+     * @param patternBytes Pattern
+     * @param resultCollector Result collector
+     * @param bufferSize Read buffer size
+     * @param equivalence Byte equivalence classes (null - exact matching)
+     */
+    public KMPFileSearchTaskExecutor(byte[] patternBytes, TaskAcceptor<FileSearchBean> resultCollector, int bufferSize,
+                                     ByteEquivalence equivalence) {
+        if (patternBytes.length == 0) {
+            throw new IllegalArgumentException("Pattern shall not be empty");
+        }
         this.resultCollector = resultCollector;
-        this.patternBytes = patternBytes;
+        this.patternBytes = equivalence != null ? equivalence.canonical(patternBytes) : patternBytes;
+        patternBytes = this.patternBytes;
         this.bufferSize = bufferSize;
+        this.foldTable = equivalence != null ? equivalence.getTable() : null;
 
         this.kmpNext = new int[patternBytes.length];
 
@@ -56,33 +93,81 @@ public class KMPFileSearchTaskExecutor implements TaskExecutor<FileSearchBean> {
         }
     }
 
+    /**
+     * @param skipBinaryFiles Stop reading file after the first block if it looks like binary data
+     */
+    public void setSkipBinaryFiles(boolean skipBinaryFiles) {
+        this.skipBinaryFiles = skipBinaryFiles;
+    }
+
+    /**
+     * @param enabled Skip to candidate positions of the rarest pattern byte found by {@link RareBytePrefilter}
+     */
+    public void setRareBytePrefilter(boolean enabled) {
+        this.prefilter = enabled ? RareBytePrefilter.forPattern(patternBytes, foldTable) : null;
+    }
+
     @Override
     public void execute(FileSearchBean task) throws Exception {
+        final SearchMetrics.ScanTimer timer = SearchMetrics.startScanTimer();
         final FileInputStream fileInputStream = new FileInputStream(task.getInputFile());
-        final BufferedInputStream bufferedInputStream = new BufferedInputStream(fileInputStream, bufferSize);
-
+        if (timer != null) {
+            timer.opened();
+        }
+        final byte[] buffer = buffers.acquire();
         try {
+            final byte[] pattern = patternBytes;
+            final int[] next = kmpNext;
+            final byte[] fold = foldTable;
+            final int m = pattern.length;
+            final RareBytePrefilter rareBytes = prefilter;
+            final ByteBuffer words = rareBytes != null ? ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN) : null;
+            final int rareOffset = rareBytes != null ? rareBytes.getOffset() : 0;
             int j = 0;
-            int buff;
-            while ((buff = bufferedInputStream.read()) != -1 && j < patternBytes.length) {
-                while (j >= 0 && buff != (patternBytes[j] & 0xff)) {
-                    j = kmpNext[j];
+            boolean firstBlock = skipBinaryFiles;
+            int bytesRead;
+            while ((bytesRead = fileInputStream.read(buffer, 0, buffer.length)) != -1) {
+                if (timer != null) {
+                    timer.read(bytesRead);
+                }
+                if (firstBlock) {
+                    firstBlock = false;
+                    if (BinaryDetector.looksBinary(buffer, 0, bytesRead)) {
+                        return;
+                    }
                 }
-                j++;
+                for (int i = 0; i < bytesRead; i++) {
+                    if (j == 0 && rareBytes != null) {
+                        // Nothing is matched: skip positions where pattern can't start (its rare byte is missing)
+                        final int candidate = rareBytes.indexOf(words, i + rareOffset, bytesRead);
+                        i = candidate >= 0 ? candidate - rareOffset : Math.max(i, bytesRead - rareOffset);
+                        if (i >= bytesRead) {
+                            break;
+                        }
+                    }
+                    final byte b = fold != null ? fold[buffer[i] & 0xff] : buffer[i];
+                    while (j >= 0 && b != pattern[j]) {
+                        j = next[j];
+                    }
+                    j++;
 
-                if (j >= patternBytes.length) {
-                    resultCollector.push(task);
-                    break;
-                    //  j = kmpNext[j];
+                    if (j == m) {
+                        resultCollector.push(task);
+                        return;
+                    }
+                }
+                if (timer != null) {
+                    timer.matched();
                 }
             }
         } finally {
-            try {
-                bufferedInputStream.close();
-            } catch (IOException ioe) { /* ignore silently */ }
+            buffers.release(buffer);
             try {
                 fileInputStream.close();
             } catch(IOException ioe) { /* ignore silently */ }
+            if (timer != null) {
+                timer.done();
+            }
         }
     }
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import com.sun.nio.file.ExtendedOpenOption;
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.search.BinaryDetector;
+import org.aap.filesearcher.search.ByteEquivalence;
+import org.aap.filesearcher.stats.SearchMetrics;
+import org.aap.filesearcher.util.BufferPool;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Knuth–Morris–Pratt search with direct I/O ({@code O_DIRECT}): file data is read from device straight into
+ * block-aligned direct buffer and doesn't go through page cache, so cold scan of a big tree doesn't evict hot data
+ * of other processes (and doesn't benefit from cache either).
+ *
+ * <p>Buffers are taken from shared pool, so their count is bounded by count of concurrently searched files (also
+ * with per-file virtual threads of {@code -v}). Buffer address and size are aligned to {@link #ALIGNMENT} which is
+ * a multiple of logical block size of usual devices. Files on file systems which reject direct I/O (tmpfs, some
+ * network file systems) are read through page cache with the same buffer; such files are counted separately.
+ */
+public class KMPFileSearchTaskExecutorDirect implements TaskExecutor<FileSearchBean> {
+    private final static Logger logger = Logger.getLogger(KMPFileSearchTaskExecutorDirect.class);
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+    /** Alignment of buffer address, size and read positions */
+    public static final int ALIGNMENT = 4096;
+    /** Reason of {@link FileSystemException} thrown for EINVAL error */
+    private static final String EINVAL_REASON = "Invalid argument";
+    private final byte[] patternBytes;
+    private final int bufferSize;
+    /** Canonical byte for each byte or null for exact matching */
+    private final byte[] foldTable;
+    private final BufferPool<ByteBuffer> byteBuffers = new BufferPool<ByteBuffer>() {
+        @Override
+        protected ByteBuffer create() {
+            return ByteBuffer.allocateDirect(bufferSize + ALIGNMENT - 1).alignedSlice(ALIGNMENT);
+        }
+    };
+    private final AtomicLong directFiles = new AtomicLong();
+    private final AtomicLong bufferedFiles = new AtomicLong();
+    private volatile boolean fallbackLogged;
+    private boolean skipBinaryFiles;
+
+    private final int[] kmpNext;
+    private final TaskAcceptor<FileSearchBean> resultCollector;
+
+    /**
+     * @param patternBytes Pattern
+     * @param resultCollector Result collector
+     * @param bufferSize Read buffer size (rounded up to {@link #ALIGNMENT})
+     * @param equivalence Byte equivalence classes (null - exact matching)
+     */
+    public KMPFileSearchTaskExecutorDirect(byte[] patternBytes, TaskAcceptor<FileSearchBean> resultCollector,
+                                           int bufferSize, ByteEquivalence equivalence) {
+        this.resultCollector = resultCollector;
+        this.patternBytes = equivalence != null ? equivalence.canonical(patternBytes) : patternBytes;
+        patternBytes = this.patternBytes;
+        this.bufferSize = (Math.max(bufferSize, 1) + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        this.foldTable = equivalence != null ? equivalence.getTable() : null;
+
+        this.kmpNext = new int[patternBytes.length];
+        // Pre-compute
+        int j = -1;
+        for (int i = 0; i < patternBytes.length; i++) {
+            if (i == 0) {
+                kmpNext[i] = -1;
+            } else if (patternBytes[i] != patternBytes[j]) {
+                kmpNext[i] = j;
+            } else {
+                kmpNext[i] = kmpNext[j];
+            }
+
+            while (j >= 0 && patternBytes[i] != patternBytes[j]) {
+                j = kmpNext[j];
+            }
+
+            j++;
+        }
+    }
+
+    /**
+     * @param skipBinaryFiles Stop reading file after the first block if it looks like binary data
+     */
+    public void setSkipBinaryFiles(boolean skipBinaryFiles) {
+        this.skipBinaryFiles = skipBinaryFiles;
+    }
+
+    /**
+     * @return Count of files read with direct I/O
+     */
+    public long getDirectFiles() {
+        return directFiles.get();
+    }
+
+    /**
+     * @return Count of files read through page cache because file system rejected direct I/O
+     */
+    public long getBufferedFiles() {
+        return bufferedFiles.get();
+    }
+
+    @Override
+    public void execute(FileSearchBean task) throws Exception {
+        final SearchMetrics.ScanTimer timer = SearchMetrics.startScanTimer();
+        final Path path = task.getInputFile().toPath();
+        FileChannel fc = openDirect(path);
+        boolean direct = fc != null;
+        if (!direct) {
+            fc = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        if (timer != null) {
+            timer.opened();
+        }
+
+        final ByteBuffer byteBuffer = byteBuffers.acquire();
+        try {
+            final byte[] fold = foldTable;
+            int j = 0;
+            boolean firstBlock = true;
+            int bytesRead;
+            while (true) {
+                byteBuffer.clear();
+                try {
+                    bytesRead = fc.read(byteBuffer);
+                } catch (IOException e) {
+                    if (!(direct && firstBlock)) {
+                        throw e;
+                    }
+                    // File system accepted O_DIRECT on open, but rejects reads
+                    closeQuietly(fc);
+                    fc = FileChannel.open(path, StandardOpenOption.READ);
+                    direct = false;
+                    logFallback(path, e);
+                    continue;
+                }
+                if (bytesRead == -1) {
+                    break;
+                }
+                // Direct read at unaligned position after the file tail may fail instead of returning -1
+                final boolean endOfFile = direct && bytesRead < byteBuffer.capacity();
+                if (timer != null) {
+                    timer.read(bytesRead);
+                }
+                if (firstBlock) {
+                    firstBlock = false;
+                    if (skipBinaryFiles && BinaryDetector.looksBinary(byteBuffer, 0, bytesRead)) {
+                        return;
+                    }
+                }
+
+                for (int i = 0; i < bytesRead; i++) {
+                    final byte b = fold != null ? fold[byteBuffer.get(i) & 0xff] : byteBuffer.get(i);
+                    while (j >= 0 && b != patternBytes[j]) {
+                        j = kmpNext[j];
+                    }
+                    j++;
+
+                    if (j == patternBytes.length) {
+                        resultCollector.push(task);
+                        return;
+                    }
+                }
+                if (timer != null) {
+                    timer.matched();
+                }
+                if (endOfFile) {
+                    break;
+                }
+            }
+        } finally {
+            byteBuffers.release(byteBuffer);
+            (direct ? directFiles : bufferedFiles).incrementAndGet();
+            closeQuietly(fc);
+            if (timer != null) {
+                timer.done();
+            }
+        }
+    }
+
+    /**
+     * @return Channel opened for direct I/O or null if file system doesn't support it
+     * @throws IOException If file can't be opened for other reason (missing file, no access, etc.)
+     */
+    private FileChannel openDirect(Path path) throws IOException {
+        try {
+            return FileChannel.open(path, StandardOpenOption.READ, ExtendedOpenOption.DIRECT);
+        } catch (UnsupportedOperationException e) {
+            logFallback(path, e);
+        } catch (FileSystemException e) {
+            // Only EINVAL means file system without O_DIRECT
+            if (!EINVAL_REASON.equals(e.getReason())) {
+                throw e;
+            }
+            logFallback(path, e);
+        }
+        return null;
+    }
+
+    private void logFallback(Path path, Exception e) {
+        if (!fallbackLogged) {
+            fallbackLogged = true;
+            logger.info("Direct I/O is not supported for " + path + ", reading through page cache: " + e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(FileChannel fc) {
+        try {
+            fc.close();
+        } catch(IOException ioe) { /* ignore silently */ }
+    }
+}
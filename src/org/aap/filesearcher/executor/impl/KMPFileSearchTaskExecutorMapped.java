@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.search.ByteEquivalence;
+import org.aap.filesearcher.search.RareBytePrefilter;
+import org.aap.filesearcher.util.MappedBufferCleaner;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Knuth–Morris–Pratt algorithm substring pattern searching over memory-mapped file.
+ *
+ * <p>File is mapped by windows of {@code mapSize} bytes and scanned directly in the mapping (no copy to
+ * user buffer, no read syscall per chunk). KMP state is kept between windows, so matches crossing window
+ * boundary are found without overlapping. Each window is unmapped right after scanning.
+ */
+public class KMPFileSearchTaskExecutorMapped implements TaskExecutor<FileSearchBean> {
+    public static final int DEFAULT_MAP_SIZE = 64 * 1024 * 1024;
+    private final byte[] patternBytes;
+    private final int[] kmpNext;
+    private final int mapSize;
+    /** Canonical byte for each byte or null for exact matching */
+    private final byte[] foldTable;
+    private final TaskAcceptor<FileSearchBean> resultCollector;
+    private RareBytePrefilter prefilter;
+
+    public KMPFileSearchTaskExecutorMapped(byte[] patternBytes, TaskAcceptor<FileSearchBean> resultCollector) {
+        this(patternBytes, resultCollector, DEFAULT_MAP_SIZE);
+    }
+
+    public KMPFileSearchTaskExecutorMapped(byte[] patternBytes, TaskAcceptor<FileSearchBean> resultCollector, int mapSize) {
+        this(patternBytes, resultCollector, mapSize, null);
+    }
+
+    /**
+     * @param patternBytes Pattern
+     * @param resultCollector Result collector
+     * @param mapSize Size of mapped window
+     * @param equivalence Byte equivalence classes (null - exact matching)
+     */
+    public KMPFileSearchTaskExecutorMapped(byte[] patternBytes, TaskAcceptor<FileSearchBean> resultCollector, int mapSize,
+                                           ByteEquivalence equivalence) {
+        if (mapSize <= 0) {
+            throw new IllegalArgumentException("mapSize shall be greater than zero");
+        }
+        this.resultCollector = resultCollector;
+        this.patternBytes = equivalence != null ? equivalence.canonical(patternBytes) : patternBytes;
+        patternBytes = this.patternBytes;
+        this.mapSize = mapSize;
+        this.foldTable = equivalence != null ? equivalence.getTable() : null;
+
+        this.kmpNext = new int[patternBytes.length];
+
+        // Pre-compute
+        int j = -1;
+        for (int i = 0; i < patternBytes.length; i++) {
+            if (i == 0) {
+                kmpNext[i] = -1;
+            } else if (patternBytes[i] != patternBytes[j]) {
+                kmpNext[i] = j;
+            } else {
+                kmpNext[i] = kmpNext[j];
+            }
+
+            while (j >= 0 && patternBytes[i] != patternBytes[j]) {
+                j = kmpNext[j];
+            }
+
+            j++;
+        }
+    }
+
+    /**
+     * @param enabled Skip to candidate positions of the rarest pattern byte found by {@link RareBytePrefilter}
+     */
+    public void setRareBytePrefilter(boolean enabled) {
+        this.prefilter = enabled ? RareBytePrefilter.forPattern(patternBytes, foldTable) : null;
+    }
+
+    @Override
+    public void execute(FileSearchBean task) throws Exception {
+        final FileInputStream fileInputStream = new FileInputStream(task.getInputFile());
+        final FileChannel fc = fileInputStream.getChannel();
+
+        try {
+            final long fileSize = fc.size();
+            final byte[] fold = foldTable;
+            final RareBytePrefilter rareBytes = prefilter;
+            final int rareOffset = rareBytes != null ? rareBytes.getOffset() : 0;
+            long position = 0;
+            int j = 0;
+            while (position < fileSize) {
+                final int windowSize = (int) Math.min(mapSize, fileSize - position);
+                final MappedByteBuffer window = fc.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+                window.order(ByteOrder.nativeOrder());
+                try {
+                    for (int i = 0; i < windowSize; i++) {
+                        if (j == 0 && rareBytes != null) {
+                            // Nothing is matched: skip positions where pattern can't start (its rare byte is missing)
+                            final int candidate = rareBytes.indexOf(window, i + rareOffset, windowSize);
+                            i = candidate >= 0 ? candidate - rareOffset : Math.max(i, windowSize - rareOffset);
+                            if (i >= windowSize) {
+                                break;
+                            }
+                        }
+                        final int currChar = fold != null ? fold[window.get(i) & 0xff] & 0xff : window.get(i) & 0xff;
+
+                        while (j >= 0 && currChar != (patternBytes[j] & 0xff)) {
+                            j = kmpNext[j];
+                        }
+                        j++;
+
+                        if (j >= patternBytes.length) {
+                            resultCollector.push(task);
+                            return;
+                        }
+                    }
+                } finally {
+                    MappedBufferCleaner.unmap(window);
+                }
+                position += windowSize;
+            }
+        } finally {
+            try {
+                fc.close();
+            } catch(IOException ioe) { /* ignore silently */ }
+            try {
+                fileInputStream.close();
+            } catch(IOException ioe) { /* ignore silently */ }
+        }
+    }
+}
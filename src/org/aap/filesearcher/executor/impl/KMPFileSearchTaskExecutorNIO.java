@@ -8,15 +8,18 @@ package org.aap.filesearcher.executor.impl;
 import org.aap.filesearcher.FileSearchBean;
 import org.aap.filesearcher.executor.TaskAcceptor;
 import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.search.BinaryDetector;
+import org.aap.filesearcher.search.ByteEquivalence;
+import org.aap.filesearcher.search.RareBytePrefilter;
+import org.aap.filesearcher.stats.SearchMetrics;
+import org.aap.filesearcher.util.BufferPool;
 import org.apache.log4j.Logger;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Knuth–Morris–Pratt algorithm substring pattern searching algorithm implementation.
@@ -29,7 +32,17 @@ public class KMPFileSearchTaskExecutorNIO implements TaskExecutor<FileSearchBean
     public static final int DEFAULT_BUFFER_SIZE = 8192;
     private final byte[] patternBytes;
     private final int bufferSize;
-    private final Map<Long, ByteBuffer> byteBuffers = Collections.synchronizedMap(new HashMap<Long, ByteBuffer>());
+    /** Canonical byte for each byte or null for exact matching */
+    private final byte[] foldTable;
+    private final BufferPool<ByteBuffer> byteBuffers = new BufferPool<ByteBuffer>() {
+        @Override
+        protected ByteBuffer create() {
+            // Native order: prefilter reads words without byte swapping
+            return ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+        }
+    };
+    private boolean skipBinaryFiles;
+    private RareBytePrefilter prefilter;
 
     private final int[] kmpNext;
     private final TaskAcceptor<FileSearchBean> resultCollector;
@@ -40,9 +53,22 @@ public class KMPFileSearchTaskExecutorNIO implements TaskExecutor<FileSearchBean
     }
 
     public KMPFileSearchTaskExecutorNIO(byte[] patternBytes, TaskAcceptor<FileSearchBean> resultCollector, int bufferSize) {
+        this(patternBytes, resultCollector, bufferSize, null);
+    }
+
+    /**
+     * @param patternBytes Pattern
+     * @param resultCollector Result collector
+     * @param bufferSize Read buffer size
+     * @param equivalence Byte equivalence classes (null - exact matching)
+     */
+    public KMPFileSearchTaskExecutorNIO(byte[] patternBytes, TaskAcceptor<FileSearchBean> resultCollector, int bufferSize,
+                                        ByteEquivalence equivalence) {
         this.resultCollector = resultCollector;
-        this.patternBytes = patternBytes;
+        this.patternBytes = equivalence != null ? equivalence.canonical(patternBytes) : patternBytes;
+        patternBytes = this.patternBytes;
         this.bufferSize = bufferSize;
+        this.foldTable = equivalence != null ? equivalence.getTable() : null;
 
         this.kmpNext = new int[patternBytes.length];
         // Pre-compute
@@ -64,44 +90,85 @@ public class KMPFileSearchTaskExecutorNIO implements TaskExecutor<FileSearchBean
         }
     }
 
+    /**
+     * @param skipBinaryFiles Stop reading file after the first block if it looks like binary data
+     */
+    public void setSkipBinaryFiles(boolean skipBinaryFiles) {
+        this.skipBinaryFiles = skipBinaryFiles;
+    }
+
+    /**
+     * @param enabled Skip to candidate positions of the rarest pattern byte found by {@link RareBytePrefilter}
+     */
+    public void setRareBytePrefilter(boolean enabled) {
+        this.prefilter = enabled ? RareBytePrefilter.forPattern(patternBytes, foldTable) : null;
+    }
+
     @Override
     public void execute(FileSearchBean task) throws Exception {
+        final SearchMetrics.ScanTimer timer = SearchMetrics.startScanTimer();
         final FileInputStream fileInputStream = new FileInputStream(task.getInputFile());
         final FileChannel fc = fileInputStream.getChannel();
-
-        // Maintain one byte buffer per thread
-        Long threadId = Thread.currentThread().getId();
-        ByteBuffer byteBuffer = byteBuffers.get(threadId);
-        if (byteBuffer == null) {
-            byteBuffer = ByteBuffer.allocateDirect(bufferSize);
-            byteBuffers.put(threadId, byteBuffer);
+        if (timer != null) {
+            timer.opened();
         }
 
+        // Don't format debug messages for each file if they are not logged
+        final boolean debug = logger.isDebugEnabled();
+
+        final ByteBuffer byteBuffer = byteBuffers.acquire();
         try {
+            final byte[] fold = foldTable;
+            final RareBytePrefilter rareBytes = prefilter;
+            final int rareOffset = rareBytes != null ? rareBytes.getOffset() : 0;
             int j = 0;
+            boolean firstBlock = skipBinaryFiles;
             int buffReaded;
             byteBuffer.clear();
 
-            logger.debug(String.format("0 [%d]Buffer: %d - %d - %d\n",
-                    counter++,
-                    byteBuffer.position(),
-                    byteBuffer.limit(),
-                    byteBuffer.capacity()));
+            if (debug) {
+                logger.debug(String.format("0 [%d]Buffer: %d - %d - %d\n",
+                        counter++,
+                        byteBuffer.position(),
+                        byteBuffer.limit(),
+                        byteBuffer.capacity()));
+            }
             while ((buffReaded = fc.read(byteBuffer)) != -1 && j < patternBytes.length) {
                 if (buffReaded == 0)
                     continue;
+                if (timer != null) {
+                    timer.read(buffReaded);
+                }
 
                 byteBuffer.position(0);
                 byteBuffer.limit(buffReaded);
+                if (firstBlock) {
+                    firstBlock = false;
+                    if (BinaryDetector.looksBinary(byteBuffer, 0, buffReaded)) {
+                        return;
+                    }
+                }
 
-                logger.debug(String.format("N Buffer reading: %d - %d - %d - %d\n",
-                    byteBuffer.position(),
-                    byteBuffer.limit(),
-                    byteBuffer.capacity(),
-                    byteBuffer.remaining()));
+                if (debug) {
+                    logger.debug(String.format("N Buffer reading: %d - %d - %d - %d\n",
+                        byteBuffer.position(),
+                        byteBuffer.limit(),
+                        byteBuffer.capacity(),
+                        byteBuffer.remaining()));
+                }
 
                 while (byteBuffer.hasRemaining() && j < patternBytes.length) {
-                    final int currChar = byteBuffer.get() & 0xff;
+                    if (j == 0 && rareBytes != null) {
+                        // Nothing is matched: skip positions where pattern can't start (its rare byte is missing)
+                        final int position = byteBuffer.position();
+                        final int candidate = rareBytes.indexOf(byteBuffer, position + rareOffset, buffReaded);
+                        byteBuffer.position(candidate >= 0
+                                ? candidate - rareOffset : Math.max(position, buffReaded - rareOffset));
+                        if (!byteBuffer.hasRemaining()) {
+                            break;
+                        }
+                    }
+                    final int currChar = fold != null ? fold[byteBuffer.get() & 0xff] & 0xff : byteBuffer.get() & 0xff;
 
                     while (j >= 0 && currChar != (patternBytes[j] & 0xff)) {
                         j = kmpNext[j];
@@ -114,20 +181,29 @@ public class KMPFileSearchTaskExecutorNIO implements TaskExecutor<FileSearchBean
                         //  j = kmpNext[j];
                     }
                 }
+                if (timer != null) {
+                    timer.matched();
+                }
                 byteBuffer.clear();
-                logger.debug(String.format("N Buffer: %d - %d - %d - %d\n",
-                    byteBuffer.position(),
-                    byteBuffer.limit(),
-                    byteBuffer.capacity(),
-                    byteBuffer.remaining()));
+                if (debug) {
+                    logger.debug(String.format("N Buffer: %d - %d - %d - %d\n",
+                        byteBuffer.position(),
+                        byteBuffer.limit(),
+                        byteBuffer.capacity(),
+                        byteBuffer.remaining()));
+                }
             }
         } finally {
+            byteBuffers.release(byteBuffer);
             try {
                 fc.close();
             } catch(IOException ioe) { /* ignore silently */ }
             try {
                 fileInputStream.close();
             } catch(IOException ioe) { /* ignore silently */ }
+            if (timer != null) {
+                timer.done();
+            }
         }
     }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.search.AhoCorasickAutomaton;
+import org.aap.filesearcher.search.ByteEquivalence;
+import org.aap.filesearcher.stats.SearchMetrics;
+import org.aap.filesearcher.util.BufferPool;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Search of one pattern in several encodings at once. Byte forms of the pattern (by default UTF-8, UTF-16LE and
+ * UTF-16BE) are matched in one pass with {@link AhoCorasickAutomaton}, file is reported on the first match of any
+ * form. File content is never decoded.
+ */
+public class MultiEncodingFileSearchTaskExecutor implements TaskExecutor<FileSearchBean> {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    public static final List<Charset> DEFAULT_CHARSETS = Collections.unmodifiableList(Arrays.asList(
+            Charset.forName("UTF-8"), Charset.forName("UTF-16LE"), Charset.forName("UTF-16BE")));
+    private final AhoCorasickAutomaton automaton;
+    private final TaskAcceptor<FileSearchBean> resultCollector;
+    private final int bufferSize;
+    private final BufferPool<byte[]> buffers = new BufferPool<byte[]>() {
+        @Override
+        protected byte[] create() {
+            return new byte[bufferSize];
+        }
+    };
+
+    public MultiEncodingFileSearchTaskExecutor(String pattern, TaskAcceptor<FileSearchBean> resultCollector) {
+        this(pattern, DEFAULT_CHARSETS, resultCollector, DEFAULT_BUFFER_SIZE, null);
+    }
+
+    /**
+     * @param pattern Pattern
+     * @param charsets Encodings of the pattern
+     * @param resultCollector Result collector
+     * @param bufferSize Read buffer size
+     * @param equivalence Byte equivalence classes (null - exact matching)
+     */
+    public MultiEncodingFileSearchTaskExecutor(String pattern, List<Charset> charsets,
+                                               TaskAcceptor<FileSearchBean> resultCollector, int bufferSize,
+                                               ByteEquivalence equivalence) {
+        final byte[][] patterns = new byte[charsets.size()][];
+        for (int i = 0; i < patterns.length; i++) {
+            patterns[i] = pattern.getBytes(charsets.get(i));
+        }
+        this.automaton = new AhoCorasickAutomaton(patterns, equivalence);
+        this.resultCollector = resultCollector;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void execute(FileSearchBean task) throws Exception {
+        final SearchMetrics.ScanTimer timer = SearchMetrics.startScanTimer();
+        final FileInputStream fileInputStream = new FileInputStream(task.getInputFile());
+        if (timer != null) {
+            timer.opened();
+        }
+        final byte[] buffer = buffers.acquire();
+        try {
+            int state = automaton.getInitialState();
+            int bytesRead;
+            while ((bytesRead = fileInputStream.read(buffer)) != -1) {
+                if (timer != null) {
+                    timer.read(bytesRead);
+                }
+                for (int i = 0; i < bytesRead; i++) {
+                    state = automaton.next(state, buffer[i]);
+                    if (automaton.hasOutput(state)) {
+                        resultCollector.push(task);
+                        return;
+                    }
+                }
+                if (timer != null) {
+                    timer.matched();
+                }
+            }
+        } finally {
+            buffers.release(buffer);
+            try {
+                fileInputStream.close();
+            } catch(IOException ioe) { /* ignore silently */ }
+            if (timer != null) {
+                timer.done();
+            }
+        }
+    }
+}
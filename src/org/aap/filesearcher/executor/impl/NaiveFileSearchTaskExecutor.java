@@ -8,27 +8,61 @@ package org.aap.filesearcher.executor.impl;
 import org.aap.filesearcher.FileSearchBean;
 import org.aap.filesearcher.executor.TaskAcceptor;
 import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.search.BinaryDetector;
+import org.aap.filesearcher.search.ByteEquivalence;
+import org.aap.filesearcher.search.RareBytePrefilter;
+import org.aap.filesearcher.stats.SearchMetrics;
+import org.aap.filesearcher.util.BufferPool;
 
-import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Simple Naive substring pattern search algorithm implementation.
  * Complexity: O(nm),
  *  where m - length of substring,
  *  n - length of the searchable text.
+ *
+ * <p>File is read in bulk into per-thread buffer, last {@code m - 1} bytes of the block are moved to the beginning of
+ * the buffer before the next read, so matches crossing block boundary are found without re-reading the stream.
  */
 public class NaiveFileSearchTaskExecutor implements TaskExecutor<FileSearchBean> {
     public static final int DEFAULT_BUFFER_SIZE = 8192;
     private final byte[] patternBytes;
     private final TaskAcceptor<FileSearchBean> resultCollector;
     private final int bufferSize;
+    /** Canonical byte for each byte or null for exact matching */
+    private final byte[] foldTable;
+    private final BufferPool<byte[]> buffers = new BufferPool<byte[]>() {
+        @Override
+        protected byte[] create() {
+            return new byte[bufferSize];
+        }
+    };
+    private boolean skipBinaryFiles;
+    private RareBytePrefilter prefilter;
 
     public NaiveFileSearchTaskExecutor(byte[] patternBytes, TaskAcceptor<FileSearchBean> resultCollector, int bufferSize) {
+        this(patternBytes, resultCollector, bufferSize, null);
+    }
+
+    /**
+     * @param patternBytes Pattern
+     * @param resultCollector Result collector
+     * @param bufferSize Read buffer size (shall not be smaller than pattern length)
+     * @param equivalence Byte equivalence classes (null - exact matching)
+     */
+    public NaiveFileSearchTaskExecutor(byte[] patternBytes, TaskAcceptor<FileSearchBean> resultCollector, int bufferSize,
+                                       ByteEquivalence equivalence) {
+        if (patternBytes.length == 0) {
+            throw new IllegalArgumentException("Pattern shall not be empty");
+        }
         this.resultCollector = resultCollector;
-        this.patternBytes = patternBytes;
+        this.patternBytes = equivalence != null ? equivalence.canonical(patternBytes) : patternBytes;
         this.bufferSize = bufferSize;
+        this.foldTable = equivalence != null ? equivalence.getTable() : null;
 
         if (bufferSize < patternBytes.length) {
             throw new IllegalArgumentException("bufferSize can't be smaller than pattern length");
@@ -39,39 +73,116 @@ public class NaiveFileSearchTaskExecutor implements TaskExecutor<FileSearchBean>
         this(patternBytes, resultCollector, DEFAULT_BUFFER_SIZE);
     }
 
+    /**
+     * @param skipBinaryFiles Stop reading file after the first block if it looks like binary data
+     */
+    public void setSkipBinaryFiles(boolean skipBinaryFiles) {
+        this.skipBinaryFiles = skipBinaryFiles;
+    }
+
+    /**
+     * @param enabled Skip to candidate positions of the rarest pattern byte found by {@link RareBytePrefilter}
+     */
+    public void setRareBytePrefilter(boolean enabled) {
+        this.prefilter = enabled ? RareBytePrefilter.forPattern(patternBytes, foldTable) : null;
+    }
+
     @Override
     public void execute(FileSearchBean task) throws Exception {
+        final SearchMetrics.ScanTimer timer = SearchMetrics.startScanTimer();
         final FileInputStream fileInputStream = new FileInputStream(task.getInputFile());
-        final BufferedInputStream bufferedInputStream = new BufferedInputStream(fileInputStream, bufferSize);
-
+        if (timer != null) {
+            timer.opened();
+        }
+        final byte[] buffer = buffers.acquire();
         try {
             // Naive substring matching algorithm
-            int buff;
-            while ((buff = bufferedInputStream.read()) != -1) {
-                if (buff == (patternBytes[0] & 0xff)) {
-                    bufferedInputStream.mark(patternBytes.length);
-                    int k = 1;
-                    while (k < patternBytes.length
-                            && (buff = bufferedInputStream.read()) != -1
-                            && (patternBytes[k] & 0xff) == buff) {
-                        k++;
+            final byte[] pattern = patternBytes;
+            final int m = pattern.length;
+            final byte[] fold = foldTable;
+            final byte first = pattern[0];
+            final RareBytePrefilter rareBytes = prefilter;
+            final ByteBuffer words = rareBytes != null ? ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN) : null;
+            final int rareOffset = rareBytes != null ? rareBytes.getOffset() : 0;
+            int carry = 0;
+            boolean firstBlock = skipBinaryFiles;
+            int bytesRead;
+            while ((bytesRead = fileInputStream.read(buffer, carry, buffer.length - carry)) != -1) {
+                if (timer != null) {
+                    timer.read(bytesRead);
+                }
+                if (firstBlock) {
+                    firstBlock = false;
+                    if (BinaryDetector.looksBinary(buffer, 0, bytesRead)) {
+                        return;
                     }
+                }
+                final int limit = carry + bytesRead;
+                final int last = limit - m;
+                if (fold != null) {
+                    // Compare canonical bytes
+                    for (int i = 0; i <= last; i++) {
+                        if (rareBytes != null) {
+                            // Pattern can start only where its rare byte is at the right offset
+                            final int candidate = rareBytes.indexOf(words, i + rareOffset, last + rareOffset + 1);
+                            if (candidate < 0) {
+                                break;
+                            }
+                            i = candidate - rareOffset;
+                        }
+                        if (fold[buffer[i] & 0xff] == first) {
+                            int k = 1;
+                            while (k < m && fold[buffer[i + k] & 0xff] == pattern[k]) {
+                                k++;
+                            }
 
-                    if (k == patternBytes.length) {
-                        // We found whole pattern
-                        resultCollector.push(task);
-                        break;
+                            if (k == m) {
+                                resultCollector.push(task);
+                                return;
+                            }
+                        }
+                    }
+                } else {
+                    for (int i = 0; i <= last; i++) {
+                        if (rareBytes != null) {
+                            // Pattern can start only where its rare byte is at the right offset
+                            final int candidate = rareBytes.indexOf(words, i + rareOffset, last + rareOffset + 1);
+                            if (candidate < 0) {
+                                break;
+                            }
+                            i = candidate - rareOffset;
+                        }
+                        if (buffer[i] == first) {
+                            int k = 1;
+                            while (k < m && buffer[i + k] == pattern[k]) {
+                                k++;
+                            }
+
+                            if (k == m) {
+                                // We found whole pattern
+                                resultCollector.push(task);
+                                return;
+                            }
+                        }
                     }
-                    bufferedInputStream.reset();
                 }
+
+                if (timer != null) {
+                    timer.matched();
+                }
+
+                // Keep tail which can be the beginning of the pattern
+                carry = Math.min(m - 1, limit);
+                System.arraycopy(buffer, limit - carry, buffer, 0, carry);
             }
         } finally {
-            try {
-                bufferedInputStream.close();
-            } catch (IOException ioe) { /* ignore silently */ }
+            buffers.release(buffer);
             try {
                 fileInputStream.close();
             } catch(IOException ioe) { /* ignore silently */ }
+            if (timer != null) {
+                timer.done();
+            }
         }
     }
 }
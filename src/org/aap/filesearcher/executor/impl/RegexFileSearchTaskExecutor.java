@@ -0,0 +1,240 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.search.BinaryDetector;
+import org.aap.filesearcher.search.ByteEquivalence;
+import org.aap.filesearcher.search.HorspoolMatcher;
+import org.aap.filesearcher.search.RegexLiterals;
+import org.aap.filesearcher.stats.SearchMetrics;
+import org.aap.filesearcher.util.BufferPool;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Regular expression search with literal prefilter.
+ *
+ * <p>Literal required in every match (see {@link RegexLiterals}) is searched with {@link HorspoolMatcher} and
+ * regular expression is run only on the line around each literal hit. If expression has no required literal, it's
+ * run on all complete lines of each block. File is read by blocks into per-thread buffer, incomplete last line is
+ * moved to the buffer start before the next read, so memory is bounded by buffer size for any file size.
+ *
+ * <p>Matches are searched within a line ({@code ^} and {@code $} match at line boundaries). Lines longer than half of
+ * the buffer are cut, matches crossing the cut are not found. Charset shall encode {@code '\n'} as single byte.
+ */
+public class RegexFileSearchTaskExecutor implements TaskExecutor<FileSearchBean> {
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+    private final Pattern pattern;
+    /** Prefilter, null if expression has no required literal */
+    private final HorspoolMatcher literalMatcher;
+    private final Charset charset;
+    private final TaskAcceptor<FileSearchBean> resultCollector;
+    private final int bufferSize;
+    private final BufferPool<Window> windows = new BufferPool<Window>() {
+        @Override
+        protected Window create() {
+            return new Window(pattern, charset, bufferSize);
+        }
+    };
+    private boolean skipBinaryFiles;
+
+    /**
+     * @param regex Regular expression ({@link Pattern} syntax)
+     * @param charset Charset of searched files
+     * @param caseInsensitive Case-insensitive matching
+     * @param resultCollector Result collector
+     * @param bufferSize Read buffer size
+     * @throws IllegalArgumentException if expression is invalid or charset is not supported
+     */
+    public RegexFileSearchTaskExecutor(String regex, Charset charset, boolean caseInsensitive,
+                                       TaskAcceptor<FileSearchBean> resultCollector, int bufferSize)
+            throws IllegalArgumentException {
+        final byte[] newline = "\n".getBytes(charset);
+        if (newline.length != 1 || newline[0] != '\n') {
+            throw new IllegalArgumentException("Regular expression search is not supported for " + charset);
+        }
+        this.pattern = Pattern.compile(regex,
+                Pattern.MULTILINE | (caseInsensitive ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0));
+
+        final String literal = RegexLiterals.requiredLiteral(regex);
+        if (literal != null) {
+            final ByteEquivalence equivalence = caseInsensitive
+                    ? ByteEquivalence.caseInsensitive(Collections.singletonList(literal), Collections.singletonList(charset))
+                    : null;
+            this.literalMatcher = new HorspoolMatcher(literal.getBytes(charset), equivalence);
+        } else {
+            this.literalMatcher = null;
+        }
+        this.charset = charset;
+        this.resultCollector = resultCollector;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param skipBinaryFiles Stop reading file after the first block if it looks like binary data
+     */
+    public void setSkipBinaryFiles(boolean skipBinaryFiles) {
+        this.skipBinaryFiles = skipBinaryFiles;
+    }
+
+    /**
+     * @return true if expression has required literal and prefilter is used
+     */
+    public boolean hasPrefilter() {
+        return literalMatcher != null;
+    }
+
+    @Override
+    public void execute(FileSearchBean task) throws Exception {
+        final SearchMetrics.ScanTimer timer = SearchMetrics.startScanTimer();
+        final FileInputStream fileInputStream = new FileInputStream(task.getInputFile());
+        if (timer != null) {
+            timer.opened();
+        }
+        final Window window = windows.acquire();
+        final byte[] buffer = window.buffer;
+        try {
+            final int maxCarry = buffer.length / 2;
+            boolean firstBlock = skipBinaryFiles;
+            int carry = 0;
+            int bytesRead;
+            while ((bytesRead = fileInputStream.read(buffer, carry, buffer.length - carry)) != -1 || carry > 0) {
+                final boolean endOfFile = bytesRead == -1;
+                if (!endOfFile) {
+                    if (timer != null) {
+                        timer.read(bytesRead);
+                    }
+                    if (firstBlock) {
+                        firstBlock = false;
+                        if (BinaryDetector.looksBinary(buffer, 0, bytesRead)) {
+                            return;
+                        }
+                    }
+                }
+                final int limit = endOfFile ? carry : carry + bytesRead;
+
+                // Only complete lines are searched, the last one is completed by the next read
+                int end = endOfFile ? limit : lastIndexOf(buffer, (byte) '\n', limit) + 1;
+                if (end == 0 || limit - end > maxCarry) {
+                    // Line is too long, it's cut
+                    end = limit - Math.min(limit, maxCarry);
+                }
+
+                if (searchLines(buffer, end, window)) {
+                    resultCollector.push(task);
+                    return;
+                }
+                if (timer != null) {
+                    timer.matched();
+                }
+                if (endOfFile) {
+                    break;
+                }
+
+                carry = limit - end;
+                System.arraycopy(buffer, end, buffer, 0, carry);
+            }
+        } finally {
+            windows.release(window);
+            try {
+                fileInputStream.close();
+            } catch(IOException ioe) { /* ignore silently */ }
+            if (timer != null) {
+                timer.done();
+            }
+        }
+    }
+
+    /**
+     * Search lines in region [0, end) of the buffer.
+     */
+    private boolean searchLines(byte[] buffer, int end, Window window) {
+        if (literalMatcher == null) {
+            return end > 0 && window.find(0, end);
+        }
+        int from = 0;
+        int hit;
+        while ((hit = literalMatcher.indexOf(buffer, from, end)) >= 0) {
+            final int lineStart = lastIndexOf(buffer, (byte) '\n', hit) + 1;
+            int lineEnd = indexOf(buffer, (byte) '\n', hit + literalMatcher.getPatternLength(), end);
+            if (lineEnd < 0) {
+                lineEnd = end;
+            }
+            if (window.find(lineStart, lineEnd)) {
+                return true;
+            }
+            // The rest of the line is already checked
+            from = lineEnd;
+        }
+        return false;
+    }
+
+    private static int lastIndexOf(byte[] buffer, byte b, int to) {
+        for (int i = to - 1; i >= 0; i--) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] buffer, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Per-thread read buffer, decoder and matcher, regions of the buffer are decoded into reused character buffer.
+     */
+    private static class Window {
+        final byte[] buffer;
+        private final ByteBuffer bytes;
+        private final CharsetDecoder decoder;
+        private final CharBuffer chars;
+        private final Matcher matcher;
+
+        Window(Pattern pattern, Charset charset, int bufferSize) {
+            this.buffer = new byte[bufferSize];
+            this.bytes = ByteBuffer.wrap(buffer);
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.chars = CharBuffer.allocate((int) Math.ceil(bufferSize * (double) decoder.maxCharsPerByte()));
+            this.matcher = pattern.matcher(chars);
+        }
+
+        /**
+         * @return true if expression is found in region [from, to) of the buffer
+         */
+        boolean find(int from, int to) {
+            bytes.limit(to).position(from);
+            decoder.reset();
+            chars.clear();
+            decoder.decode(bytes, chars, true);
+            decoder.flush(chars);
+            chars.flip();
+            // Matcher reads new bounds of the character buffer
+            matcher.reset();
+            return matcher.find();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.executor.TaskQueue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free bounded multi-producer/multi-consumer task queue based on array ring buffer.
+ *
+ * <p>Each slot has its own sequence number, producers and consumers claim slots by CAS on padded head/tail
+ * counters (no locks, no allocation per task). When queue is full (push) or empty (pull) caller waits
+ * according to {@link WaitStrategy}.
+ *
+ * <p>Call to {@link #pull()} returns null and interrupts current thread once end of data is signaled and
+ * queue is drained (same contract as {@link BlockingTaskQueue}).
+ *
+ * @param <T> Task type
+ */
+public class RingBufferTaskQueue<T> implements TaskQueue<T> {
+    /**
+     * Strategy of waiting for free slot/available task.
+     */
+    public enum WaitStrategy {
+        /** Busy spin (lowest latency, burns CPU) */
+        SPIN,
+        /** Spin for a while, then park thread for short periods */
+        PARK
+    }
+
+    private static final int SPIN_TRIES = 100;
+    private static final long MIN_PARK_NANOS = 1000;
+    private static final long MAX_PARK_NANOS = 1000000;
+
+    private final AtomicReferenceArray<T> buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();
+    private final PaddedAtomicLong head = new PaddedAtomicLong();
+    private volatile boolean endOfData;
+
+    /**
+     * Create queue with specified capacity (rounded up to power of two).
+     *
+     * @param capacity Queue capacity
+     * @param waitStrategy Wait strategy
+     * @throws IllegalArgumentException if capacity equals or less zero
+     */
+    public RingBufferTaskQueue(int capacity, WaitStrategy waitStrategy) throws IllegalArgumentException {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity shall be in range (0, 2^30]");
+        }
+        final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.buffer = new AtomicReferenceArray<T>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Call to this method spins/parks while queue is full.
+     *
+     * @throws IllegalArgumentException if task is null
+     * @throws InterruptedException if interrupted
+     */
+    @Override
+    public void push(T task) throws IllegalArgumentException, InterruptedException {
+        if (task == null) {
+            throw new IllegalArgumentException("Task shall not be null");
+        }
+
+        int idleCount = 0;
+        while (!offer(task)) {
+            idleCount = idle(idleCount);
+        }
+    }
+
+    /**
+     * Call to this method spins/parks while queue is empty.
+     *
+     * @return New object or null if end of data reached
+     * @throws InterruptedException if interrupted
+     */
+    @Override
+    public T pull() throws InterruptedException {
+        int idleCount = 0;
+        while (true) {
+            T task = poll();
+            if (task != null) {
+                return task;
+            }
+
+            if (endOfData) {
+                // All pushes happened before end of data signal, check once more
+                task = poll();
+                if (task != null) {
+                    return task;
+                }
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            idleCount = idle(idleCount);
+        }
+    }
+
+    @Override
+    public void signalEndOfData() {
+        endOfData = true;
+    }
+
+    @Override
+    public int size() {
+        final long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int) Math.min(size, mask + 1);
+    }
+
+    private boolean offer(T task) {
+        long position = tail.get();
+        while (true) {
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer.lazySet(index, task);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // Queue is full
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    private T poll() {
+        long position = head.get();
+        while (true) {
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final T task = buffer.get(index);
+                    buffer.lazySet(index, null);
+                    sequences.set(index, position + mask + 1);
+                    return task;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                // Queue is empty
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Wait a bit according to wait strategy.
+     *
+     * @param idleCount Count of unsuccessful tries so far
+     * @return New count of unsuccessful tries
+     * @throws InterruptedException if thread interrupted
+     */
+    private int idle(int idleCount) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        if (idleCount < SPIN_TRIES || waitStrategy == WaitStrategy.SPIN) {
+            Thread.onSpinWait();
+        } else if (idleCount < SPIN_TRIES * 2) {
+            Thread.yield();
+        } else {
+            final int shift = Math.min(idleCount - SPIN_TRIES * 2, 10);
+            LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << shift, MAX_PARK_NANOS));
+        }
+        return idleCount == Integer.MAX_VALUE ? idleCount : idleCount + 1;
+    }
+
+    /**
+     * Atomic counter padded to its own cache line to avoid false sharing between head and tail.
+     */
+    @SuppressWarnings("unused")
+    private static class PaddedAtomicLong extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.FileChunkSearchBean;
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.executor.TaskQueue;
+
+import java.util.PriorityQueue;
+
+/**
+ * Bounded task queue which hands out the largest buffered file first (longest-processing-time-first scheduling).
+ *
+ * <p>Big files are started as early as they are listed, small files fill executor threads between them and at the
+ * end of the search, so a big file listed last doesn't keep one thread busy after others finished. Only files
+ * buffered at once are ordered: queue holds at most {@code maxSize} tasks and {@link #push(FileSearchBean)} is
+ * blocked while it's full. Files of equal size are pulled in listing order.
+ *
+ * <p>Size is taken from listing (or chunk length of split files), it's read from file system if listing didn't
+ * provide it.
+ */
+public class SizeOrderedTaskQueue implements TaskQueue<FileSearchBean> {
+    private final PriorityQueue<Entry> taskQueue;
+    private final int maxSize;
+    private long sequence;
+    private boolean endOfData;
+
+    /** Queue size for monitoring, updated under queue lock */
+    private volatile int queueSize = 0;
+
+    /**
+     * @param maxSize Max count of buffered tasks
+     * @throws IllegalArgumentException if maxSize equals or less zero
+     */
+    public SizeOrderedTaskQueue(int maxSize) throws IllegalArgumentException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize shall be greater than zero");
+        }
+        this.maxSize = maxSize;
+        this.taskQueue = new PriorityQueue<Entry>(Math.min(maxSize, 1024));
+    }
+
+    /**
+     * Call to this method can be blocked if queue is empty.
+     *
+     * @return The largest buffered task or null on end of data (thread is interrupted)
+     * @throws InterruptedException if interrupted
+     */
+    @Override
+    public FileSearchBean pull() throws InterruptedException {
+        synchronized (taskQueue) {
+            while (taskQueue.isEmpty() && !endOfData) {
+                taskQueue.wait();
+            }
+
+            if (!taskQueue.isEmpty()) {
+                final FileSearchBean task = taskQueue.poll().task;
+                queueSize = taskQueue.size();
+                // Producer waits for free space
+                taskQueue.notifyAll();
+                return task;
+            }
+        }
+        Thread.currentThread().interrupt();
+        return null;
+    }
+
+    /**
+     * Call to this method can be blocked if max queue size is reached.
+     *
+     * @throws IllegalArgumentException if task is null
+     * @throws InterruptedException if interrupted
+     */
+    @Override
+    public void push(FileSearchBean task) throws IllegalArgumentException, InterruptedException {
+        if (task == null) {
+            throw new IllegalArgumentException("Task shall not be null");
+        }
+
+        final long size;
+        if (task instanceof FileChunkSearchBean) {
+            size = ((FileChunkSearchBean) task).getLength();
+        } else {
+            size = task.getSize() != FileSearchBean.UNKNOWN ? task.getSize() : task.getInputFile().length();
+        }
+        synchronized (taskQueue) {
+            while (taskQueue.size() >= maxSize) {
+                taskQueue.wait();
+            }
+            taskQueue.add(new Entry(size, sequence++, task));
+            queueSize = taskQueue.size();
+            taskQueue.notifyAll();
+        }
+    }
+
+    @Override
+    public void signalEndOfData() {
+        synchronized (taskQueue) {
+            endOfData = true;
+            taskQueue.notifyAll();
+        }
+    }
+
+    @Override
+    public int size() {
+        return queueSize;
+    }
+
+    /**
+     * Buffered task with its size, the largest and then the earliest entry is the head of the queue.
+     */
+    private static class Entry implements Comparable<Entry> {
+        private final long size;
+        private final long sequence;
+        private final FileSearchBean task;
+
+        Entry(long size, long sequence, FileSearchBean task) {
+            this.size = size;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            if (size != o.size) {
+                return size > o.size ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+        }
+    }
+}
@@ -10,6 +10,9 @@ import org.apache.log4j.Logger;
 
 /**
  * Runner for task.
+ *
+ * <p>Runner completes on end of data (thread is interrupted by supplier) or after the current task if stop is
+ * requested with {@link #requestStop()}.
  * @param <T> Type of Task.
  */
 public class TaskRunner<T> implements Runnable {
@@ -17,7 +20,9 @@ public class TaskRunner<T> implements Runnable {
     private final TaskSupplier<T> taskSupplier;
     private final TaskExecutor<T> taskExecutor;
     private volatile long threadUptime;
+    private volatile long finishTime;
     private volatile long tasksProcessed;
+    private volatile boolean stopRequested;
 
     public TaskRunner(TaskSupplier<T> taskSupplier, TaskExecutor<T> taskExecutor) {
         this.taskSupplier = taskSupplier;
@@ -29,7 +34,7 @@ public class TaskRunner<T> implements Runnable {
         tasksProcessed = 0;
         final long startTime = System.currentTimeMillis();
         Thread executorThread = Thread.currentThread();
-        while (!executorThread.isInterrupted()) {
+        while (!executorThread.isInterrupted() && !stopRequested) {
             try {
                 final T t = taskSupplier.pull();
                 if (t != null) {
@@ -44,11 +49,19 @@ public class TaskRunner<T> implements Runnable {
             }
         }
 
-        threadUptime = System.currentTimeMillis() - startTime;
+        finishTime = System.currentTimeMillis();
+        threadUptime = finishTime - startTime;
 
         logger.debug(String.format("Thread %s execution completed.", executorThread.getName()));
     }
 
+    /**
+     * Ask runner to complete after the current task (thread is not interrupted, so I/O of the task is not broken).
+     */
+    public void requestStop() {
+        stopRequested = true;
+    }
+
     public long getTasksProcessed() {
         return tasksProcessed;
     }
@@ -56,4 +69,11 @@ public class TaskRunner<T> implements Runnable {
     public long getThreadUptime() {
         return threadUptime;
     }
+
+    /**
+     * @return Time when runner completed in milliseconds since the epoch (0 if it's running).
+     */
+    public long getFinishTime() {
+        return finishTime;
+    }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.executor.TaskExecutor;
+import org.aap.filesearcher.index.IndexedFile;
+import org.aap.filesearcher.index.TrigramExtractor;
+import org.aap.filesearcher.index.TrigramIndex;
+import org.aap.filesearcher.util.BufferPool;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Indexing "search" executor: extracts trigrams of each file for {@link TrigramIndex}.
+ *
+ * <p>If previous index is given, files which weren't changed since previous indexing (same size and modification
+ * time) are not read, their trigrams are taken from previous index (incremental refresh). Files are passed to
+ * {@link TrigramIndex.Writer} as they are indexed.
+ */
+public class TrigramIndexTaskExecutor implements TaskExecutor<FileSearchBean> {
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+    private final TrigramIndex previousIndex;
+    private final TrigramIndex.Writer indexWriter;
+    private final int bufferSize;
+    private final BufferPool<TrigramExtractor> extractors = new BufferPool<TrigramExtractor>() {
+        @Override
+        protected TrigramExtractor create() {
+            return new TrigramExtractor(bufferSize, TrigramExtractor.DEFAULT_MAX_TRIGRAMS);
+        }
+    };
+    private long filesIndexed;
+    private long filesReused;
+
+    /**
+     * @param previousIndex Previous index (can be null)
+     * @param indexWriter Writer of the new index
+     * @param bufferSize Read buffer size
+     */
+    public TrigramIndexTaskExecutor(TrigramIndex previousIndex, TrigramIndex.Writer indexWriter, int bufferSize) {
+        this.previousIndex = previousIndex;
+        this.indexWriter = indexWriter;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void execute(FileSearchBean task) throws Exception {
+        final File file = task.getInputFile();
+        final String path = file.getAbsolutePath();
+        final long size = task.getSize() != FileSearchBean.UNKNOWN ? task.getSize() : file.length();
+        final long lastModified = task.getLastModified() != FileSearchBean.UNKNOWN
+                ? task.getLastModified() : file.lastModified();
+
+        if (previousIndex != null) {
+            final int id = previousIndex.getFileId(path);
+            if (id >= 0) {
+                final IndexedFile previous = previousIndex.getFiles().get(id);
+                if (previous.isUpToDate(size, lastModified)) {
+                    addIndexedFile(new IndexedFile(path, size, lastModified, previous.isIndexable(),
+                            previousIndex.readTrigrams(id)), false);
+                    return;
+                }
+            }
+        }
+
+        final TrigramExtractor extractor = extractors.acquire();
+        final int[] trigrams;
+        try {
+            trigrams = extractor.extract(file);
+        } finally {
+            extractors.release(extractor);
+        }
+        addIndexedFile(new IndexedFile(path, size, lastModified, trigrams != null, trigrams), true);
+    }
+
+    private synchronized void addIndexedFile(IndexedFile indexedFile, boolean indexed) throws IOException {
+        indexWriter.add(indexedFile);
+        if (indexed) {
+            filesIndexed++;
+        } else {
+            filesReused++;
+        }
+    }
+
+    public synchronized long getFilesIndexed() {
+        return filesIndexed;
+    }
+
+    public synchronized long getFilesReused() {
+        return filesReused;
+    }
+}
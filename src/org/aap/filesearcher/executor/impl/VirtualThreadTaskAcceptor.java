@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.executor.impl;
+
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.executor.TaskExecutor;
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Task acceptor which executes each task in its own virtual thread.
+ *
+ * <p>Count of concurrently executed tasks (open files) is limited by semaphore, so blocking reads can keep device
+ * queue full without thousands of platform threads. Call to {@link #signalEndOfData()} waits until all tasks are
+ * completed.
+ *
+ * <p>Virtual threads are looked up at runtime (Java 21+), on older runtime platform threads are used instead
+ * (still limited by the same semaphore).
+ *
+ * @param <T> Task type
+ */
+public class VirtualThreadTaskAcceptor<T> implements TaskAcceptor<T> {
+    private final static Logger logger = Logger.getLogger(VirtualThreadTaskAcceptor.class);
+    private final TaskExecutor<T> taskExecutor;
+    private final int maxConcurrentTasks;
+    private final Semaphore permits;
+    private final ThreadFactory threadFactory;
+    private final AtomicLong tasksProcessed = new AtomicLong();
+    private volatile long startTime;
+    private volatile long threadUptime;
+
+    /**
+     * @param taskExecutor Task executor (shall be thread-safe)
+     * @param maxConcurrentTasks Max count of concurrently executed tasks
+     * @throws IllegalArgumentException if max count of tasks equals or less zero
+     */
+    public VirtualThreadTaskAcceptor(TaskExecutor<T> taskExecutor, int maxConcurrentTasks) throws IllegalArgumentException {
+        if (maxConcurrentTasks <= 0) {
+            throw new IllegalArgumentException("maxConcurrentTasks shall be greater than zero");
+        }
+        this.taskExecutor = taskExecutor;
+        this.maxConcurrentTasks = maxConcurrentTasks;
+        this.permits = new Semaphore(maxConcurrentTasks);
+        this.threadFactory = createThreadFactory();
+    }
+
+    @Override
+    public void push(final T task) throws IllegalArgumentException, InterruptedException {
+        if (task == null) {
+            throw new IllegalArgumentException("Task shall not be null");
+        }
+        if (startTime == 0) {
+            startTime = System.currentTimeMillis();
+        }
+
+        permits.acquire();
+        final Thread thread = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    taskExecutor.execute(task);
+                    tasksProcessed.incrementAndGet();
+                } catch (InterruptedException e) {
+                    logger.info("Task interrupted.");
+                } catch (Exception e) {
+                    logger.error("Task throws an exception, ignoring...", e);
+                } finally {
+                    permits.release();
+                }
+            }
+        });
+        thread.start();
+    }
+
+    /**
+     * Wait until all tasks are completed.
+     */
+    @Override
+    public void signalEndOfData() {
+        permits.acquireUninterruptibly(maxConcurrentTasks);
+        permits.release(maxConcurrentTasks);
+        threadUptime = startTime != 0 ? System.currentTimeMillis() - startTime : 0;
+        logger.debug("Virtual thread executor completed.");
+    }
+
+    public long getTasksProcessed() {
+        return tasksProcessed.get();
+    }
+
+    /**
+     * @return Time from the first task submission to the completion of all tasks.
+     */
+    public long getThreadUptime() {
+        return threadUptime;
+    }
+
+    private static ThreadFactory createThreadFactory() {
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception e) {
+            logger.warn("Virtual threads are not supported by this JVM, platform threads will be used");
+            return new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "Executor (platform)");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.filter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rules of {@code .gitignore}-style ignore files, immutable.
+ *
+ * <p>Rules of the ignore file apply to its directory and all subdirectories, rules of deeper ignore files are added
+ * to the rules of parent directories. The last matching rule wins, so {@code !pattern} re-includes entry excluded by
+ * earlier rule. Supported syntax: {@code #} comments, {@code !} negation, trailing {@code /} (directories only),
+ * leading or inner {@code /} (pattern is relative to the directory of ignore file, otherwise it matches entry name at
+ * any depth), {@code *}, {@code ?}, {@code [...]} and {@code **}.
+ */
+public class IgnoreRules {
+    public static final IgnoreRules EMPTY = new IgnoreRules(new Rule[0]);
+    private final Rule[] rules;
+
+    private IgnoreRules(Rule[] rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Load ignore file and add its rules to these ones.
+     *
+     * @param ignoreFile Ignore file
+     * @return New rules (or these rules if file doesn't contain any rule)
+     * @throws IOException if file can't be read
+     */
+    public IgnoreRules load(File ignoreFile) throws IOException {
+        final Path base = ignoreFile.getAbsoluteFile().getParentFile().toPath();
+        final List<Rule> loaded = new ArrayList<Rule>();
+        final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(ignoreFile), Charset.forName("UTF-8")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final Rule rule = Rule.parse(line, base);
+                if (rule != null) {
+                    loaded.add(rule);
+                }
+            }
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ioe) { /* ignore silently */ }
+        }
+
+        if (loaded.isEmpty()) {
+            return this;
+        }
+        final Rule[] combined = Arrays.copyOf(rules, rules.length + loaded.size());
+        for (int i = 0; i < loaded.size(); i++) {
+            combined[rules.length + i] = loaded.get(i);
+        }
+        return new IgnoreRules(combined);
+    }
+
+    /**
+     * @param file Absolute path of file or directory
+     * @param directory true if entry is directory
+     * @return true if entry is ignored
+     */
+    public boolean isIgnored(Path file, boolean directory) {
+        for (int i = rules.length - 1; i >= 0; i--) {
+            final Rule rule = rules[i];
+            if (rule.matches(file, directory)) {
+                return !rule.negated;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    private static class Rule {
+        private final Path base;
+        private final PathMatcher[] matchers;
+        private final boolean negated;
+        private final boolean directoryOnly;
+        private final boolean anchored;
+
+        private Rule(Path base, PathMatcher[] matchers, boolean negated, boolean directoryOnly, boolean anchored) {
+            this.base = base;
+            this.matchers = matchers;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.anchored = anchored;
+        }
+
+        /**
+         * @return Rule or null if line is empty or comment
+         */
+        static Rule parse(String line, Path base) {
+            String pattern = trimTrailingSpaces(line);
+            if (pattern.length() == 0 || pattern.startsWith("#")) {
+                return null;
+            }
+
+            boolean negated = false;
+            if (pattern.startsWith("!")) {
+                negated = true;
+                pattern = pattern.substring(1);
+            } else if (pattern.startsWith("\\!") || pattern.startsWith("\\#")) {
+                pattern = pattern.substring(1);
+            }
+
+            boolean directoryOnly = false;
+            if (pattern.endsWith("/")) {
+                directoryOnly = true;
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            final boolean anchored = pattern.indexOf('/') >= 0;
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            if (pattern.length() == 0) {
+                return null;
+            }
+
+            // "**/" may match no directories at all, which Java glob doesn't allow
+            final List<String> globs = new ArrayList<String>();
+            globs.add(pattern);
+            if (pattern.startsWith("**/")) {
+                globs.add(pattern.substring(3));
+            }
+            if (pattern.contains("/**/")) {
+                globs.add(pattern.replace("/**/", "/"));
+            }
+
+            final PathMatcher[] matchers = new PathMatcher[globs.size()];
+            for (int i = 0; i < matchers.length; i++) {
+                matchers[i] = FileSystems.getDefault().getPathMatcher("glob:" + escapeGlob(globs.get(i)));
+            }
+            return new Rule(base, matchers, negated, directoryOnly, anchored);
+        }
+
+        boolean matches(Path file, boolean directory) {
+            if (directoryOnly && !directory) {
+                return false;
+            }
+            final Path subject;
+            if (anchored) {
+                if (!file.startsWith(base)) {
+                    return false;
+                }
+                subject = base.relativize(file);
+            } else {
+                subject = file.getFileName();
+            }
+            if (subject == null) {
+                return false;
+            }
+            for (PathMatcher matcher : matchers) {
+                if (matcher.matches(subject)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String trimTrailingSpaces(String line) {
+            int end = line.length();
+            while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) {
+                end--;
+            }
+            return line.substring(0, end);
+        }
+
+        /**
+         * Escape characters which are special for Java glob but literal in ignore files.
+         */
+        private static String escapeGlob(String pattern) {
+            final StringBuilder sb = new StringBuilder(pattern.length());
+            for (int i = 0; i < pattern.length(); i++) {
+                final char c = pattern.charAt(i);
+                if (c == '{' || c == '}') {
+                    sb.append('\\');
+                }
+                sb.append(c);
+            }
+            return sb.toString();
+        }
+    }
+}
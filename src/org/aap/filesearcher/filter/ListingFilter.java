@@ -0,0 +1,170 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.filter;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Filter applied by file listing before files are passed to executors: include/exclude globs, ignore files and file
+ * size limits. Filter is thread-safe (it's used by parallel listing).
+ *
+ * <p>Glob without {@code /} matches entry name, glob with {@code /} matches path relative to the root directory.
+ * Exclude globs and ignore files apply to directories as well, so excluded subtree isn't listed at all. Include globs
+ * apply to files only.
+ */
+public class ListingFilter {
+    private final static Logger logger = Logger.getLogger(ListingFilter.class);
+    private final Path rootPath;
+    private final List<Glob> includes = new ArrayList<Glob>();
+    private final List<Glob> excludes = new ArrayList<Glob>();
+    private String ignoreFileName;
+    private long minSize = 0;
+    private long maxSize = Long.MAX_VALUE;
+    private final AtomicLong filesFiltered = new AtomicLong();
+    private final AtomicLong directoriesPruned = new AtomicLong();
+
+    /**
+     * @param rootDirectory Root directory of the search (relative globs are matched against it)
+     */
+    public ListingFilter(File rootDirectory) {
+        this.rootPath = rootDirectory.getAbsoluteFile().toPath();
+    }
+
+    public void addInclude(String glob) {
+        includes.add(new Glob(glob));
+    }
+
+    public void addExclude(String glob) {
+        excludes.add(new Glob(glob));
+    }
+
+    /**
+     * @param ignoreFileName Name of ignore files (e.g. ".gitignore") which are read in each listed directory
+     */
+    public void setIgnoreFileName(String ignoreFileName) {
+        this.ignoreFileName = ignoreFileName;
+    }
+
+    /**
+     * @param minSize Files smaller than this size are skipped
+     * @param maxSize Files bigger than this size are skipped
+     * @throws IllegalArgumentException if limits are invalid
+     */
+    public void setSizeLimits(long minSize, long maxSize) throws IllegalArgumentException {
+        if (minSize < 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("Invalid size limits: " + minSize + ".." + maxSize);
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return true if file size is required by {@link #acceptFile(File, long, IgnoreRules)}
+     */
+    public boolean needsSize() {
+        return minSize > 0 || maxSize != Long.MAX_VALUE;
+    }
+
+    /**
+     * Read ignore file of the directory (if any).
+     *
+     * @param directory Directory which is going to be listed
+     * @param rules Rules of the parent directory
+     * @return Rules for entries of the directory
+     */
+    public IgnoreRules enterDirectory(File directory, IgnoreRules rules) {
+        if (ignoreFileName == null) {
+            return rules;
+        }
+        final File ignoreFile = new File(directory, ignoreFileName);
+        if (!ignoreFile.isFile()) {
+            return rules;
+        }
+        try {
+            return rules.load(ignoreFile);
+        } catch (IOException e) {
+            logger.warn("Unable to read ignore file " + ignoreFile + ": " + e.getMessage());
+            return rules;
+        }
+    }
+
+    /**
+     * @param directory Subdirectory found by listing
+     * @param rules Rules of the listed directory
+     * @return true if subdirectory shall be listed
+     */
+    public boolean acceptDirectory(File directory, IgnoreRules rules) {
+        final Path path = directory.getAbsoluteFile().toPath();
+        if (matchesAny(excludes, path) || rules.isIgnored(path, true)) {
+            directoriesPruned.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param file File found by listing
+     * @param size File size (may be {@link org.aap.filesearcher.FileSearchBean#UNKNOWN} if size limits are not set)
+     * @param rules Rules of the listed directory
+     * @return true if file shall be searched
+     */
+    public boolean acceptFile(File file, long size, IgnoreRules rules) {
+        final boolean accepted = (size < 0 || (size >= minSize && size <= maxSize))
+                && acceptPath(file.getAbsoluteFile().toPath(), rules);
+        if (!accepted) {
+            filesFiltered.incrementAndGet();
+        }
+        return accepted;
+    }
+
+    private boolean acceptPath(Path path, IgnoreRules rules) {
+        if (!includes.isEmpty() && !matchesAny(includes, path)) {
+            return false;
+        }
+        return !matchesAny(excludes, path) && !rules.isIgnored(path, false);
+    }
+
+    public long getFilesFiltered() {
+        return filesFiltered.get();
+    }
+
+    public long getDirectoriesPruned() {
+        return directoriesPruned.get();
+    }
+
+    private boolean matchesAny(List<Glob> globs, Path path) {
+        for (Glob glob : globs) {
+            if (glob.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class Glob {
+        private final PathMatcher matcher;
+        private final boolean relative;
+
+        Glob(String glob) {
+            this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            this.relative = glob.indexOf('/') >= 0;
+        }
+
+        boolean matches(Path path) {
+            final Path subject = relative ? rootPath.relativize(path) : path.getFileName();
+            return subject != null && matcher.matches(subject);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.index;
+
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.executor.TaskAcceptor;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Task acceptor decorator which drops files that can't contain pattern according to trigram index.
+ *
+ * <p>Only files which are in the index and weren't changed since indexing (same size and modification time)
+ * are dropped, new and changed files are always passed for search, so stale index doesn't lose matches.
+ */
+public class IndexFilterTaskAcceptor implements TaskAcceptor<FileSearchBean> {
+    private final TaskAcceptor<FileSearchBean> taskAcceptor;
+    private final TrigramIndex index;
+    private final boolean[] candidates;
+    private final AtomicLong filesSkipped = new AtomicLong();
+
+    /**
+     * @param taskAcceptor Task acceptor for files to search
+     * @param index Trigram index
+     * @param candidates Candidate flags by file id (see {@link TrigramIndex#findCandidates(byte[])}), null to pass
+     *                   all files
+     */
+    public IndexFilterTaskAcceptor(TaskAcceptor<FileSearchBean> taskAcceptor, TrigramIndex index, boolean[] candidates) {
+        this.taskAcceptor = taskAcceptor;
+        this.index = index;
+        this.candidates = candidates;
+    }
+
+    @Override
+    public void push(FileSearchBean task) throws IllegalArgumentException, InterruptedException {
+        if (candidates != null) {
+            final File file = task.getInputFile();
+            final int id = index.getFileId(file.getAbsolutePath());
+            if (id >= 0 && !candidates[id]) {
+                final long size = task.getSize() != FileSearchBean.UNKNOWN ? task.getSize() : file.length();
+                final long lastModified = task.getLastModified() != FileSearchBean.UNKNOWN
+                        ? task.getLastModified() : file.lastModified();
+                if (index.getFiles().get(id).isUpToDate(size, lastModified)) {
+                    filesSkipped.incrementAndGet();
+                    return;
+                }
+            }
+        }
+        taskAcceptor.push(task);
+    }
+
+    @Override
+    public void signalEndOfData() {
+        taskAcceptor.signalEndOfData();
+    }
+
+    /**
+     * @return Count of files skipped due to index.
+     */
+    public long getFilesSkipped() {
+        return filesSkipped.get();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.index;
+
+/**
+ * Index entry: file identity (path, size, modification time) and set of trigrams found in the file.
+ */
+public class IndexedFile {
+    private final String path;
+    private final long size;
+    private final long lastModified;
+    private final boolean indexable;
+    private final int[] trigrams;
+
+    /**
+     * @param path Absolute file path
+     * @param size File size
+     * @param lastModified File modification time
+     * @param indexable false if file has too many distinct trigrams (it's always search candidate then)
+     * @param trigrams Sorted distinct trigrams (null if file isn't indexable or trigrams aren't loaded)
+     */
+    public IndexedFile(String path, long size, long lastModified, boolean indexable, int[] trigrams) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.indexable = indexable;
+        this.trigrams = trigrams;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public boolean isIndexable() {
+        return indexable;
+    }
+
+    public int[] getTrigrams() {
+        return trigrams;
+    }
+
+    /**
+     * @param size Current file size
+     * @param lastModified Current file modification time
+     * @return true if file wasn't changed since indexing
+     */
+    public boolean isUpToDate(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexedFile: " + path;
+    }
+}
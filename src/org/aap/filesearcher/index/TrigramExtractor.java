@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.index;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Extracts set of distinct byte trigrams from the file. Trigram is encoded as {@code b0 << 16 | b1 << 8 | b2}.
+ *
+ * <p>Not thread-safe: extractor keeps reusable scratch buffers (2 MB bit set), one instance per concurrent task shall
+ * be used.
+ */
+public class TrigramExtractor {
+    public static final int DEFAULT_MAX_TRIGRAMS = 1 << 18;
+    private static final int TRIGRAM_SPACE = 1 << 24;
+
+    private final int maxTrigrams;
+    private final byte[] buffer;
+    private final long[] seen = new long[TRIGRAM_SPACE / 64];
+    private int[] found = new int[1024];
+
+    public TrigramExtractor(int bufferSize, int maxTrigrams) {
+        this.buffer = new byte[bufferSize];
+        this.maxTrigrams = maxTrigrams;
+    }
+
+    /**
+     * Extract trigrams from file.
+     *
+     * @param file File
+     * @return Sorted distinct trigrams or null if file contains more than max trigrams (reading stops then)
+     * @throws IOException if file can't be read
+     */
+    public int[] extract(File file) throws IOException {
+        int count = 0;
+        boolean overflow = false;
+        final FileInputStream inputStream = new FileInputStream(file);
+        try {
+            int trigram = 0;
+            long position = 0;
+            int bytesRead;
+            while (!overflow && (bytesRead = inputStream.read(buffer)) != -1) {
+                for (int i = 0; i < bytesRead; i++) {
+                    trigram = ((trigram << 8) | (buffer[i] & 0xff)) & (TRIGRAM_SPACE - 1);
+                    if (++position < 3) {
+                        continue;
+                    }
+
+                    final long bit = 1L << trigram;
+                    if ((seen[trigram >>> 6] & bit) == 0) {
+                        seen[trigram >>> 6] |= bit;
+                        if (count == found.length) {
+                            found = Arrays.copyOf(found, found.length * 2);
+                        }
+                        found[count++] = trigram;
+                        if (count > maxTrigrams) {
+                            overflow = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        } finally {
+            // Reset scratch bit set for the next file
+            for (int i = 0; i < count; i++) {
+                seen[found[i] >>> 6] = 0;
+            }
+            try {
+                inputStream.close();
+            } catch (IOException ioe) { /* ignore silently */ }
+        }
+
+        if (overflow) {
+            return null;
+        }
+        final int[] trigrams = Arrays.copyOf(found, count);
+        Arrays.sort(trigrams);
+        return trigrams;
+    }
+
+    /**
+     * Extract distinct trigrams from pattern.
+     *
+     * @param patternBytes Pattern
+     * @return Sorted distinct trigrams (empty if pattern is shorter than 3 bytes)
+     */
+    public static int[] extract(byte[] patternBytes) {
+        if (patternBytes.length < 3) {
+            return new int[0];
+        }
+
+        final int[] trigrams = new int[patternBytes.length - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = (patternBytes[i] & 0xff) << 16 | (patternBytes[i + 1] & 0xff) << 8 | (patternBytes[i + 2] & 0xff);
+        }
+        Arrays.sort(trigrams);
+
+        int count = 0;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                trigrams[count++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, count);
+    }
+}
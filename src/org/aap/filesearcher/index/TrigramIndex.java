@@ -0,0 +1,633 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Persistent trigram index.
+ *
+ * <p>Index is stored in directory as three files:
+ * <ul>
+ *  <li> {@code files.idx} - file table: path, size, modification time (used to detect changed files) and position
+ *  of file trigrams in forward index;
+ *  <li> {@code trigrams.idx} - forward index: trigrams of each file (used only by index refresh, read per file);
+ *  <li> {@code postings.idx} - inverted index: posting lists (file ids) followed by sorted table of trigrams with
+ *  offsets and lengths of lists, lists are delta/varint encoded. Query reads table entries by binary search and only
+ *  needed lists.
+ * </ul>
+ * All files of one index carry the same build id, so files left from different builds are detected.
+ */
+public class TrigramIndex implements Closeable {
+    private static final int FILES_MAGIC = 0x46534946;
+    private static final int TRIGRAMS_MAGIC = 0x46535447;
+    private static final int POSTINGS_MAGIC = 0x46535053;
+    private static final int VERSION = 2;
+    /** Magic, version and build id */
+    private static final int HEADER_SIZE = 16;
+    private static final int POSTINGS_ENTRY_SIZE = 16;
+    private static final String FILES_NAME = "files.idx";
+    private static final String TRIGRAMS_NAME = "trigrams.idx";
+    private static final String POSTINGS_NAME = "postings.idx";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File indexDirectory;
+    private final long buildId;
+    private final List<IndexedFile> files;
+    /** Position of file trigrams in forward index, -1 if file isn't indexable */
+    private final long[] trigramsOffsets;
+    private final int[] trigramsLengths;
+    private final Map<String, Integer> fileIds;
+    private FileChannel trigramsChannel;
+
+    private TrigramIndex(File indexDirectory, long buildId, List<IndexedFile> files, long[] trigramsOffsets,
+                         int[] trigramsLengths) {
+        this.indexDirectory = indexDirectory;
+        this.buildId = buildId;
+        this.files = files;
+        this.trigramsOffsets = trigramsOffsets;
+        this.trigramsLengths = trigramsLengths;
+        this.fileIds = new HashMap<String, Integer>(files.size() * 2);
+        for (int i = 0; i < files.size(); i++) {
+            fileIds.put(files.get(i).getPath(), i);
+        }
+    }
+
+    /**
+     * @param indexDirectory Index directory
+     * @return true if index exists in directory
+     */
+    public static boolean exists(File indexDirectory) {
+        return new File(indexDirectory, FILES_NAME).isFile() && new File(indexDirectory, POSTINGS_NAME).isFile();
+    }
+
+    /**
+     * Load file table of the index, trigrams of files are read on demand by {@link #readTrigrams(int)}.
+     *
+     * @param indexDirectory Index directory
+     * @return Index
+     * @throws IOException if index can't be read
+     */
+    public static TrigramIndex load(File indexDirectory) throws IOException {
+        final DataInputStream filesInput = openInput(new File(indexDirectory, FILES_NAME), FILES_MAGIC);
+        final long buildId;
+        final List<IndexedFile> files;
+        final long[] trigramsOffsets;
+        final int[] trigramsLengths;
+        try {
+            buildId = filesInput.readLong();
+            final int count = filesInput.readInt();
+            files = new ArrayList<IndexedFile>(count);
+            trigramsOffsets = new long[count];
+            trigramsLengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                files.add(new IndexedFile(filesInput.readUTF(), filesInput.readLong(), filesInput.readLong(),
+                        filesInput.readBoolean(), null));
+                trigramsOffsets[i] = filesInput.readLong();
+                trigramsLengths[i] = filesInput.readInt();
+            }
+        } finally {
+            closeSilently(filesInput);
+        }
+
+        checkBuildId(new File(indexDirectory, TRIGRAMS_NAME), TRIGRAMS_MAGIC, buildId);
+        checkBuildId(new File(indexDirectory, POSTINGS_NAME), POSTINGS_MAGIC, buildId);
+        return new TrigramIndex(indexDirectory, buildId, files, trigramsOffsets, trigramsLengths);
+    }
+
+    /**
+     * @return Indexed files (index in list is file id).
+     */
+    public List<IndexedFile> getFiles() {
+        return files;
+    }
+
+    /**
+     * @param path Absolute file path
+     * @return Id of file or -1 if file isn't indexed
+     */
+    public int getFileId(String path) {
+        final Integer id = fileIds.get(path);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Read trigrams of the file from forward index (can be called concurrently).
+     *
+     * @param id File id
+     * @return Sorted distinct trigrams or null if file isn't indexable
+     * @throws IOException if index can't be read
+     */
+    public int[] readTrigrams(int id) throws IOException {
+        if (trigramsOffsets[id] < 0) {
+            return null;
+        }
+        final FileChannel fc = getTrigramsChannel();
+        final ByteBuffer record = ByteBuffer.allocate(trigramsLengths[id]);
+        while (record.hasRemaining()) {
+            if (fc.read(record, trigramsOffsets[id] + record.position()) == -1) {
+                throw new IOException("Index is corrupted: " + indexDirectory);
+            }
+        }
+        record.flip();
+
+        final int[] trigrams = new int[readVarInt(record)];
+        int trigram = 0;
+        for (int k = 0; k < trigrams.length; k++) {
+            trigram += readVarInt(record);
+            trigrams[k] = trigram;
+        }
+        return trigrams;
+    }
+
+    private synchronized FileChannel getTrigramsChannel() throws IOException {
+        if (trigramsChannel == null) {
+            trigramsChannel = FileChannel.open(new File(indexDirectory, TRIGRAMS_NAME).toPath(), StandardOpenOption.READ);
+        }
+        return trigramsChannel;
+    }
+
+    /**
+     * Close forward index (if it was read), index files can be replaced after that.
+     */
+    @Override
+    public synchronized void close() {
+        if (trigramsChannel != null) {
+            closeSilently(trigramsChannel);
+            trigramsChannel = null;
+        }
+    }
+
+    /**
+     * Find files which may contain pattern: files containing all trigrams of the pattern and files which aren't
+     * indexable.
+     *
+     * @param patternBytes Pattern
+     * @return Candidate flag for each file id or null if pattern is too short to narrow the search
+     * @throws IOException if index can't be read
+     */
+    public boolean[] findCandidates(byte[] patternBytes) throws IOException {
+        final int[] trigrams = TrigramExtractor.extract(patternBytes);
+        if (trigrams.length == 0) {
+            return null;
+        }
+
+        final int[] hits = new int[files.size()];
+        final RandomAccessFile postings = new RandomAccessFile(new File(indexDirectory, POSTINGS_NAME), "r");
+        try {
+            if (postings.readInt() != POSTINGS_MAGIC || postings.readInt() != VERSION
+                    || postings.readLong() != buildId || postings.readInt() != files.size()) {
+                throw new IOException("Index is corrupted: " + indexDirectory);
+            }
+            final int trigramCount = postings.readInt();
+            final long tableStart = postings.readLong();
+            final long dataStart = postings.getFilePointer();
+
+            for (int trigram : trigrams) {
+                // Binary search over fixed-size table entries
+                int low = 0;
+                int high = trigramCount - 1;
+                while (low <= high) {
+                    final int middle = (low + high) >>> 1;
+                    postings.seek(tableStart + (long) middle * POSTINGS_ENTRY_SIZE);
+                    final int value = postings.readInt();
+                    if (value < trigram) {
+                        low = middle + 1;
+                    } else if (value > trigram) {
+                        high = middle - 1;
+                    } else {
+                        final long offset = postings.readLong();
+                        final byte[] list = new byte[postings.readInt()];
+                        postings.seek(dataStart + offset);
+                        postings.readFully(list);
+
+                        int id = 0;
+                        int position = 0;
+                        while (position < list.length) {
+                            int delta = 0;
+                            int shift = 0;
+                            byte b;
+                            do {
+                                b = list[position++];
+                                delta |= (b & 0x7f) << shift;
+                                shift += 7;
+                            } while (b < 0);
+                            id += delta;
+                            hits[id]++;
+                        }
+                        break;
+                    }
+                }
+            }
+        } finally {
+            postings.close();
+        }
+
+        final boolean[] candidates = new boolean[files.size()];
+        for (int id = 0; id < candidates.length; id++) {
+            candidates[id] = !files.get(id).isIndexable() || hits[id] == trigrams.length;
+        }
+        return candidates;
+    }
+
+    /**
+     * Index writer: files are added one by one (file id is the order of addition), index is written to temporary
+     * files in index directory which replace existing index on {@link #commit()}.
+     *
+     * <p>File table and forward index are streamed to disk. Postings (trigram, file id) are collected in bounded
+     * buffer which is sorted and spilled to run file when it's full, runs are merged into inverted index on commit,
+     * so memory used by writer doesn't depend on index size.
+     */
+    public static class Writer implements Closeable {
+        /** Max count of postings buffered in memory (16 MB) */
+        private static final int MAX_RUN_SIZE = 1 << 21;
+        private final File indexDirectory;
+        private final long buildId;
+        private final File filesTemp;
+        private final File trigramsTemp;
+        private final File postingsTemp;
+        private final File tableTemp;
+        private final List<File> runFiles = new ArrayList<File>();
+        private final DataOutputStream filesOutput;
+        private final DataOutputStream trigramsOutput;
+        private long[] run = new long[1024];
+        private int runSize;
+        private int fileCount;
+        private long trigramsOffset = HEADER_SIZE;
+        private boolean closed;
+
+        /**
+         * @param indexDirectory Index directory (created if not exists)
+         * @throws IOException if temporary files can't be created
+         */
+        public Writer(File indexDirectory) throws IOException {
+            if (!indexDirectory.isDirectory() && !indexDirectory.mkdirs()) {
+                throw new IOException("Unable to create index directory " + indexDirectory);
+            }
+            this.indexDirectory = indexDirectory;
+            this.buildId = new Random().nextLong();
+            this.filesTemp = new File(indexDirectory, FILES_NAME + TEMP_SUFFIX);
+            this.trigramsTemp = new File(indexDirectory, TRIGRAMS_NAME + TEMP_SUFFIX);
+            this.postingsTemp = new File(indexDirectory, POSTINGS_NAME + TEMP_SUFFIX);
+            this.tableTemp = new File(indexDirectory, POSTINGS_NAME + ".table" + TEMP_SUFFIX);
+
+            filesOutput = openOutput(filesTemp, FILES_MAGIC);
+            try {
+                filesOutput.writeLong(buildId);
+                // File count is written on commit
+                filesOutput.writeInt(0);
+                trigramsOutput = openOutput(trigramsTemp, TRIGRAMS_MAGIC);
+                trigramsOutput.writeLong(buildId);
+            } catch (IOException e) {
+                closeSilently(filesOutput);
+                throw e;
+            }
+        }
+
+        /**
+         * @param file File with trigrams (trigrams are required for indexable file)
+         * @throws IOException if index can't be written
+         */
+        public synchronized void add(IndexedFile file) throws IOException {
+            final int[] trigrams = file.getTrigrams();
+            if (file.isIndexable() && trigrams == null) {
+                throw new IllegalArgumentException("Trigrams of indexable file shall be given: " + file.getPath());
+            }
+            final int id = fileCount++;
+            filesOutput.writeUTF(file.getPath());
+            filesOutput.writeLong(file.getSize());
+            filesOutput.writeLong(file.getLastModified());
+            filesOutput.writeBoolean(file.isIndexable());
+            if (!file.isIndexable()) {
+                filesOutput.writeLong(-1);
+                filesOutput.writeInt(0);
+                return;
+            }
+
+            int length = varIntLength(trigrams.length);
+            int previous = 0;
+            for (int trigram : trigrams) {
+                length += varIntLength(trigram - previous);
+                previous = trigram;
+            }
+            filesOutput.writeLong(trigramsOffset);
+            filesOutput.writeInt(length);
+            trigramsOffset += length;
+
+            writeVarInt(trigramsOutput, trigrams.length);
+            previous = 0;
+            for (int trigram : trigrams) {
+                writeVarInt(trigramsOutput, trigram - previous);
+                previous = trigram;
+
+                if (runSize == run.length) {
+                    if (run.length < MAX_RUN_SIZE) {
+                        run = Arrays.copyOf(run, run.length * 2);
+                    } else {
+                        spillRun();
+                    }
+                }
+                // Sorted as (trigram, file id)
+                run[runSize++] = (long) trigram << 32 | id;
+            }
+        }
+
+        /**
+         * Write inverted index and replace existing index in directory.
+         *
+         * @throws IOException if index can't be written
+         */
+        public synchronized void commit() throws IOException {
+            if (closed) {
+                throw new IllegalStateException("Writer is closed");
+            }
+            try {
+                filesOutput.close();
+                trigramsOutput.close();
+                final RandomAccessFile filesTable = new RandomAccessFile(filesTemp, "rw");
+                try {
+                    filesTable.seek(HEADER_SIZE);
+                    filesTable.writeInt(fileCount);
+                } finally {
+                    filesTable.close();
+                }
+
+                if (runSize > 0) {
+                    spillRun();
+                }
+                run = null;
+                mergeRuns();
+
+                // File table is the last: index isn't seen by readers until it's complete
+                replace(trigramsTemp, new File(indexDirectory, TRIGRAMS_NAME));
+                replace(postingsTemp, new File(indexDirectory, POSTINGS_NAME));
+                replace(filesTemp, new File(indexDirectory, FILES_NAME));
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Discard temporary files, existing index is kept if {@link #commit()} wasn't called.
+         */
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeSilently(filesOutput);
+            closeSilently(trigramsOutput);
+            for (File file : runFiles) {
+                file.delete();
+            }
+            tableTemp.delete();
+            filesTemp.delete();
+            trigramsTemp.delete();
+            postingsTemp.delete();
+        }
+
+        private void spillRun() throws IOException {
+            Arrays.sort(run, 0, runSize);
+            final File runFile = new File(indexDirectory, POSTINGS_NAME + ".run" + runFiles.size() + TEMP_SUFFIX);
+            runFiles.add(runFile);
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), 65536));
+            try {
+                for (int i = 0; i < runSize; i++) {
+                    output.writeLong(run[i]);
+                }
+                output.close();
+            } finally {
+                closeSilently(output);
+            }
+            runSize = 0;
+        }
+
+        private void mergeRuns() throws IOException {
+            final List<RunReader> readers = new ArrayList<RunReader>(runFiles.size());
+            final DataOutputStream output = openOutput(postingsTemp, POSTINGS_MAGIC);
+            final DataOutputStream table = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tableTemp), 65536));
+            int trigramCount = 0;
+            long offset = 0;
+            try {
+                output.writeLong(buildId);
+                output.writeInt(fileCount);
+                // Trigram count and table position are written after merge
+                output.writeInt(0);
+                output.writeLong(0);
+
+                final PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(runFiles.size(), 1));
+                for (File runFile : runFiles) {
+                    final RunReader reader = new RunReader(runFile);
+                    readers.add(reader);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+
+                // Posting lists in trigram order, table entries are collected in temporary file
+                int trigram = -1;
+                int previous = 0;
+                long listStart = 0;
+                while (!queue.isEmpty()) {
+                    final RunReader reader = queue.poll();
+                    final int t = (int) (reader.value >>> 32);
+                    final int id = (int) reader.value;
+                    if (t != trigram) {
+                        if (trigram >= 0) {
+                            writeTableEntry(table, trigram, listStart, offset);
+                            trigramCount++;
+                        }
+                        trigram = t;
+                        previous = 0;
+                        listStart = offset;
+                    }
+                    writeVarInt(output, id - previous);
+                    offset += varIntLength(id - previous);
+                    previous = id;
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+                if (trigram >= 0) {
+                    writeTableEntry(table, trigram, listStart, offset);
+                    trigramCount++;
+                }
+                table.close();
+
+                // Table follows posting lists
+                copy(tableTemp, output);
+                output.close();
+            } finally {
+                for (RunReader reader : readers) {
+                    reader.close();
+                }
+                closeSilently(table);
+                closeSilently(output);
+            }
+
+            final RandomAccessFile postings = new RandomAccessFile(postingsTemp, "rw");
+            try {
+                postings.seek(HEADER_SIZE + 4);
+                postings.writeInt(trigramCount);
+                postings.writeLong(HEADER_SIZE + 16 + offset);
+            } finally {
+                postings.close();
+            }
+        }
+
+        private static void writeTableEntry(DataOutput table, int trigram, long listStart, long listEnd)
+                throws IOException {
+            table.writeInt(trigram);
+            table.writeLong(listStart);
+            table.writeInt((int) (listEnd - listStart));
+        }
+    }
+
+    /**
+     * Sequential reader of sorted run (postings as longs).
+     */
+    private static class RunReader implements Comparable<RunReader> {
+        private final DataInputStream input;
+        private final long count;
+        private long read;
+        private long value;
+
+        RunReader(File runFile) throws IOException {
+            this.count = runFile.length() / 8;
+            this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), 65536));
+        }
+
+        /**
+         * @return true if next value is read, false at the end of run
+         */
+        boolean next() throws IOException {
+            if (read == count) {
+                return false;
+            }
+            value = input.readLong();
+            read++;
+            return true;
+        }
+
+        void close() {
+            closeSilently(input);
+        }
+
+        @Override
+        public int compareTo(RunReader o) {
+            return value < o.value ? -1 : (value == o.value ? 0 : 1);
+        }
+    }
+
+    private static void checkBuildId(File file, int magic, long buildId) throws IOException {
+        final DataInputStream input = openInput(file, magic);
+        try {
+            if (input.readLong() != buildId) {
+                throw new IOException("Index is corrupted: " + file + " belongs to another build");
+            }
+        } finally {
+            closeSilently(input);
+        }
+    }
+
+    private static void copy(File file, DataOutputStream output) throws IOException {
+        final FileInputStream input = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[65536];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+        } finally {
+            closeSilently(input);
+        }
+    }
+
+    private static void replace(File tempFile, File file) throws IOException {
+        if (!tempFile.renameTo(file)) {
+            // Rename over existing file may fail on some platforms
+            if (!file.delete() || !tempFile.renameTo(file)) {
+                throw new IOException("Unable to write index file " + file);
+            }
+        }
+    }
+
+    private static DataInputStream openInput(File file, int magic) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file + " not found");
+        }
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        if (input.readInt() != magic || input.readInt() != VERSION) {
+            closeSilently(input);
+            throw new IOException("Unsupported index file " + file);
+        }
+        return input;
+    }
+
+    private static DataOutputStream openOutput(File file, int magic) throws IOException {
+        final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        output.writeInt(magic);
+        output.writeInt(VERSION);
+        return output;
+    }
+
+    private static void closeSilently(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ioe) { /* ignore silently */ }
+    }
+
+    private static void writeVarInt(DataOutput output, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            output.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    private static int varIntLength(int value) {
+        int length = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    private static int readVarInt(ByteBuffer input) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = input.get() & 0xff;
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.report;
+
+import org.aap.filesearcher.FileSearchBean;
+import org.aap.filesearcher.MultiPatternMatchBean;
+import org.aap.filesearcher.OccurrenceBean;
+import org.aap.filesearcher.executor.TaskAcceptor;
+import org.aap.filesearcher.executor.impl.BlockingTaskQueue;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Reporter stage: executor threads format results into buffers, single writer thread writes filled buffers to
+ * the output channel.
+ *
+ * <p>Results are appended to one of striped buffers selected by thread id (so executor threads don't contend with
+ * each other and count of buffers doesn't depend on count of threads, which matters for virtual threads). Filled
+ * buffer is encoded and passed to writer thread via bounded queue, writer thread accumulates data in large buffer and
+ * writes it to channel. Output of the thread is not interleaved inside of a result, but results appear in batches.
+ *
+ * <p>Sparse results don't wait for buffers to fill: writer thread takes results buffered longer than flush interval
+ * (and all results when no filled buffers arrive for flush interval) and writes them to channel together with its
+ * own buffer.
+ *
+ * <p>{@link #close()} shall be called when all executors are completed: it flushes remaining buffers and waits for
+ * writer thread.
+ */
+public class AsyncResultWriter {
+    private final static Logger logger = Logger.getLogger(AsyncResultWriter.class);
+    public static final int DEFAULT_FLUSH_THRESHOLD = 32768;
+    public static final int DEFAULT_OUTPUT_BUFFER_SIZE = 1 << 20;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 200;
+    private static final int WRITE_QUEUE_CAPACITY = 64;
+
+    private final ResultFormat format;
+    private final Charset charset;
+    private final int flushThreshold;
+    private final long flushIntervalMillis;
+    private final Stripe[] stripes;
+    private final BlockingTaskQueue<byte[]> writeQueue = new BlockingTaskQueue<byte[]>(WRITE_QUEUE_CAPACITY);
+    private final WritableByteChannel channel;
+    private final ByteBuffer outputBuffer;
+    private final Thread writerThread;
+    private volatile IOException writeError;
+
+    /**
+     * @param channel Output channel
+     * @param format Output format
+     * @param charset Character set of text and NUL formats, usually encoding of the output (JSON is always UTF-8)
+     */
+    public AsyncResultWriter(WritableByteChannel channel, ResultFormat format, Charset charset) {
+        this(channel, format, charset, DEFAULT_FLUSH_THRESHOLD, DEFAULT_OUTPUT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param channel Output channel
+     * @param format Output format
+     * @param charset Character set of text and NUL formats, usually encoding of the output (JSON is always UTF-8)
+     * @param flushThreshold Size of formatted results (in chars) which causes buffer to be passed to writer
+     * @param outputBufferSize Size of writer buffer
+     * @param flushIntervalMillis Max time results are kept in buffers
+     * @throws IllegalArgumentException if threshold, buffer size or interval equals or less zero
+     */
+    public AsyncResultWriter(WritableByteChannel channel, ResultFormat format, Charset charset,
+                             int flushThreshold, int outputBufferSize, long flushIntervalMillis)
+            throws IllegalArgumentException {
+        if (flushThreshold <= 0 || outputBufferSize <= 0 || flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "flushThreshold, outputBufferSize and flushIntervalMillis shall be greater than zero");
+        }
+        this.channel = channel;
+        this.format = format;
+        this.charset = format == ResultFormat.JSON ? Charset.forName("UTF-8") : charset;
+        this.flushThreshold = flushThreshold;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.outputBuffer = ByteBuffer.allocate(outputBufferSize);
+
+        // Power of two, about twice as many as processors
+        int stripesCount = Integer.highestOneBit(Math.max(2, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+        this.stripes = new Stripe[stripesCount];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(flushThreshold + 256);
+        }
+
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "Result writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * @return Reporter of matched files.
+     */
+    public TaskAcceptor<FileSearchBean> createFileReporter() {
+        return new TaskAcceptor<FileSearchBean>() {
+            @Override
+            public void push(FileSearchBean task) throws InterruptedException {
+                final Stripe stripe = acquireStripe();
+                final byte[] data;
+                synchronized (stripe) {
+                    stripe.started();
+                    format.appendFile(stripe.buffer, task.getInputFile());
+                    data = takeIfFilled(stripe);
+                }
+                pass(data);
+            }
+
+            @Override
+            public void signalEndOfData() {
+            }
+        };
+    }
+
+    /**
+     * @param patterns Patterns (matched patterns are reported by index)
+     * @return Reporter of files matched by several patterns, one result per matched pattern.
+     */
+    public TaskAcceptor<MultiPatternMatchBean> createMultiPatternReporter(final List<String> patterns) {
+        return new TaskAcceptor<MultiPatternMatchBean>() {
+            @Override
+            public void push(MultiPatternMatchBean task) throws InterruptedException {
+                final Stripe stripe = acquireStripe();
+                final byte[] data;
+                synchronized (stripe) {
+                    stripe.started();
+                    for (int patternIndex : task.getMatchedPatterns()) {
+                        format.appendMatch(stripe.buffer, task.getInputFile(), patterns.get(patternIndex));
+                    }
+                    data = takeIfFilled(stripe);
+                }
+                pass(data);
+            }
+
+            @Override
+            public void signalEndOfData() {
+            }
+        };
+    }
+
+    /**
+     * @return Reporter of pattern occurrences.
+     */
+    public TaskAcceptor<OccurrenceBean> createOccurrenceReporter() {
+        return new TaskAcceptor<OccurrenceBean>() {
+            @Override
+            public void push(OccurrenceBean task) throws InterruptedException {
+                final Stripe stripe = acquireStripe();
+                final byte[] data;
+                synchronized (stripe) {
+                    stripe.started();
+                    format.appendOccurrence(stripe.buffer, task.getInputFile(), task.getLineNumber(), task.getOffset());
+                    data = takeIfFilled(stripe);
+                }
+                pass(data);
+            }
+
+            @Override
+            public void signalEndOfData() {
+            }
+        };
+    }
+
+    /**
+     * Flush all buffers and wait until everything is written to channel. Channel is not closed.
+     *
+     * @throws IOException if results can't be written
+     * @throws InterruptedException if interrupted
+     */
+    public void close() throws IOException, InterruptedException {
+        for (Stripe stripe : stripes) {
+            final byte[] data;
+            synchronized (stripe) {
+                data = take(stripe);
+            }
+            pass(data);
+        }
+        writeQueue.signalEndOfData();
+        writerThread.join();
+
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+    private Stripe acquireStripe() {
+        return stripes[(int) (Thread.currentThread().getId() & (stripes.length - 1))];
+    }
+
+    /**
+     * Take buffered results if buffer is filled, shall be called under stripe lock.
+     *
+     * @return Encoded results or null
+     */
+    private byte[] takeIfFilled(Stripe stripe) {
+        return stripe.buffer.length() >= flushThreshold ? take(stripe) : null;
+    }
+
+    /**
+     * Take buffered results, shall be called under stripe lock.
+     *
+     * @return Encoded results or null if buffer is empty
+     */
+    private byte[] take(Stripe stripe) {
+        if (stripe.buffer.length() == 0) {
+            return null;
+        }
+        final byte[] data = stripe.buffer.toString().getBytes(charset);
+        stripe.buffer.setLength(0);
+        return data;
+    }
+
+    /**
+     * Pass results to writer thread, not under stripe lock: writer thread takes stripe locks too.
+     */
+    private void pass(byte[] data) throws InterruptedException {
+        if (data != null) {
+            writeQueue.push(data);
+        }
+    }
+
+    private void writeLoop() {
+        final long flushIntervalNanos = flushIntervalMillis * 1000000L;
+        long lastFlush = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                final byte[] data = writeQueue.pull(flushIntervalMillis);
+                if (data == null && Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                if (data != null && writeError == null) {
+                    write(data);
+                }
+                final long now = System.nanoTime();
+                if (data == null || now - lastFlush >= flushIntervalNanos) {
+                    // Queue is idle (all results are taken) or interval passed (results waiting that long are taken)
+                    lastFlush = now;
+                    if (writeError == null) {
+                        flushStripes(data == null ? now : now - flushIntervalNanos);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // Keep draining the queue, so executors are not blocked
+                logger.error("Unable to write results", e);
+                writeError = e;
+            }
+        }
+
+        // End of data is signalled by interrupt, clear it: interruptible channel would be closed by write
+        Thread.interrupted();
+        if (writeError == null) {
+            try {
+                drainOutputBuffer();
+            } catch (IOException e) {
+                logger.error("Unable to write results", e);
+                writeError = e;
+            }
+        }
+    }
+
+    /**
+     * Write results buffered before the given time and drain output buffer.
+     *
+     * @param time Time ({@link System#nanoTime()}) of the first buffered result
+     */
+    private void flushStripes(long time) throws IOException {
+        for (Stripe stripe : stripes) {
+            byte[] data = null;
+            synchronized (stripe) {
+                if (stripe.buffer.length() > 0 && stripe.startTime - time <= 0) {
+                    data = take(stripe);
+                }
+            }
+            if (data != null) {
+                write(data);
+            }
+        }
+        if (outputBuffer.position() > 0) {
+            drainOutputBuffer();
+        }
+    }
+
+    private void write(byte[] data) throws IOException {
+        if (data.length > outputBuffer.remaining()) {
+            drainOutputBuffer();
+        }
+        if (data.length > outputBuffer.capacity()) {
+            final ByteBuffer wrapped = ByteBuffer.wrap(data);
+            while (wrapped.hasRemaining()) {
+                channel.write(wrapped);
+            }
+        } else {
+            outputBuffer.put(data);
+        }
+    }
+
+    private void drainOutputBuffer() throws IOException {
+        outputBuffer.flip();
+        while (outputBuffer.hasRemaining()) {
+            channel.write(outputBuffer);
+        }
+        outputBuffer.clear();
+    }
+
+    /**
+     * Buffer of formatted results, guarded by its own lock.
+     */
+    private static class Stripe {
+        private final StringBuilder buffer;
+        /** Time ({@link System#nanoTime()}) of the first result in buffer */
+        private long startTime;
+
+        Stripe(int capacity) {
+            this.buffer = new StringBuilder(capacity);
+        }
+
+        /**
+         * Shall be called before result is appended.
+         */
+        void started() {
+            if (buffer.length() == 0) {
+                startTime = System.nanoTime();
+            }
+        }
+    }
+}
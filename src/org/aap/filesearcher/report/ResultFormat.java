@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.report;
+
+import java.io.File;
+
+/**
+ * Output format of search results.
+ */
+public enum ResultFormat {
+    /** One result per line: {@code path}, {@code path:pattern} or {@code path:line:offset} */
+    TEXT,
+    /** Same as text, but each result is terminated by NUL character (for {@code xargs -0}) */
+    NUL,
+    /** One JSON object per line (always UTF-8 encoded) */
+    JSON;
+
+    /**
+     * @param name Format name: "text", "nul" or "json"
+     * @return Result format
+     * @throws IllegalArgumentException if format name is unknown
+     */
+    public static ResultFormat forName(String name) throws IllegalArgumentException {
+        for (ResultFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Invalid output format specified: " + name);
+    }
+
+    public void appendFile(StringBuilder sb, File file) {
+        if (this == JSON) {
+            sb.append("{\"path\":");
+            appendJsonString(sb, file.toString());
+            sb.append("}\n");
+        } else {
+            sb.append(file.toString());
+            appendTerminator(sb);
+        }
+    }
+
+    public void appendMatch(StringBuilder sb, File file, String pattern) {
+        if (this == JSON) {
+            sb.append("{\"path\":");
+            appendJsonString(sb, file.toString());
+            sb.append(",\"pattern\":");
+            appendJsonString(sb, pattern);
+            sb.append("}\n");
+        } else {
+            sb.append(file.toString()).append(':').append(pattern);
+            appendTerminator(sb);
+        }
+    }
+
+    public void appendOccurrence(StringBuilder sb, File file, long lineNumber, long offset) {
+        if (this == JSON) {
+            sb.append("{\"path\":");
+            appendJsonString(sb, file.toString());
+            sb.append(",\"line\":").append(lineNumber).append(",\"offset\":").append(offset).append("}\n");
+        } else {
+            sb.append(file.toString()).append(':').append(lineNumber).append(':').append(offset);
+            appendTerminator(sb);
+        }
+    }
+
+    private void appendTerminator(StringBuilder sb) {
+        sb.append(this == NUL ? '\0' : '\n');
+    }
+
+    private static void appendJsonString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
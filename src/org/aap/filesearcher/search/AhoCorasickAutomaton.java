@@ -0,0 +1,205 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.search;
+
+import java.util.Arrays;
+
+/**
+ * Aho–Corasick multi-pattern matching automaton.
+ * Complexity: O(M) for construction and O(n) for search,
+ *  where M - total length of all patterns,
+ *  n - length of the searchable text.
+ *
+ * <p>Automaton is stored as complete DFA in single {@code int[]} transition table ({@code state * 256 + byte}),
+ * so each input byte costs exactly one array lookup. Matched patterns are reported through output links:
+ * {@link #getOutput(int)} gives pattern ending in the state and {@link #getOutputLink(int)} gives next state
+ * in suffix chain which has an output. Duplicate patterns share the state of the first one, other indexes are given
+ * by {@link #getNextDuplicate(int)}.
+ *
+ * <p>With {@link ByteEquivalence} transitions by all bytes of a class are the same, so case-insensitive search costs
+ * nothing extra.
+ *
+ * <p>Automaton is immutable and can be shared between threads.
+ */
+public class AhoCorasickAutomaton {
+    private static final int ALPHABET_SIZE = 256;
+    private static final int NONE = -1;
+
+    private final int patternCount;
+    private final int[] transitions;
+    private final int[] output;
+    private final int[] outputLink;
+    private final int[] nextDuplicate;
+
+    public AhoCorasickAutomaton(byte[][] patterns) throws IllegalArgumentException {
+        this(patterns, null);
+    }
+
+    /**
+     * @param patterns Patterns
+     * @param equivalence Byte equivalence classes (null - exact matching)
+     * @throws IllegalArgumentException if there are no patterns or any pattern is empty
+     */
+    public AhoCorasickAutomaton(byte[][] patterns, ByteEquivalence equivalence) throws IllegalArgumentException {
+        if (patterns.length == 0) {
+            throw new IllegalArgumentException("At least one pattern required");
+        }
+        if (equivalence != null) {
+            final byte[][] canonicalPatterns = new byte[patterns.length][];
+            for (int p = 0; p < patterns.length; p++) {
+                canonicalPatterns[p] = equivalence.canonical(patterns[p]);
+            }
+            patterns = canonicalPatterns;
+        }
+
+        int maxStates = 1;
+        for (byte[] pattern : patterns) {
+            if (pattern.length == 0) {
+                throw new IllegalArgumentException("Pattern shall not be empty");
+            }
+            maxStates += pattern.length;
+        }
+
+        // Build trie, missing transitions are NONE
+        int[] trie = new int[maxStates * ALPHABET_SIZE];
+        Arrays.fill(trie, NONE);
+        final int[] stateOutput = new int[maxStates];
+        Arrays.fill(stateOutput, NONE);
+        final int[] lastDuplicate = new int[maxStates];
+        final int[] duplicates = new int[patterns.length];
+        Arrays.fill(duplicates, NONE);
+        int stateCount = 1;
+        for (int p = 0; p < patterns.length; p++) {
+            int state = 0;
+            for (byte b : patterns[p]) {
+                final int index = state * ALPHABET_SIZE + (b & 0xff);
+                if (trie[index] == NONE) {
+                    trie[index] = stateCount++;
+                }
+                state = trie[index];
+            }
+            // Output is the first index, duplicate patterns are chained to it
+            if (stateOutput[state] == NONE) {
+                stateOutput[state] = p;
+            } else {
+                duplicates[lastDuplicate[state]] = p;
+            }
+            lastDuplicate[state] = p;
+        }
+
+        // BFS over trie: convert to DFA and compute failure/output links
+        if (stateCount < maxStates) {
+            trie = Arrays.copyOf(trie, stateCount * ALPHABET_SIZE);
+        }
+        final int[] failure = new int[stateCount];
+        final int[] links = new int[stateCount];
+        Arrays.fill(links, NONE);
+        final int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+
+        for (int c = 0; c < ALPHABET_SIZE; c++) {
+            final int next = trie[c];
+            if (next == NONE) {
+                trie[c] = 0;
+            } else {
+                failure[next] = 0;
+                queue[tail++] = next;
+            }
+        }
+
+        while (head < tail) {
+            final int state = queue[head++];
+            final int fail = failure[state];
+            links[state] = stateOutput[fail] != NONE ? fail : links[fail];
+
+            for (int c = 0; c < ALPHABET_SIZE; c++) {
+                final int index = state * ALPHABET_SIZE + c;
+                final int next = trie[index];
+                if (next == NONE) {
+                    trie[index] = trie[fail * ALPHABET_SIZE + c];
+                } else {
+                    failure[next] = trie[fail * ALPHABET_SIZE + c];
+                    queue[tail++] = next;
+                }
+            }
+        }
+
+        // Bytes of the same class move automaton by transition of canonical byte
+        if (equivalence != null) {
+            final byte[] fold = equivalence.getTable();
+            for (int state = 0; state < stateCount; state++) {
+                final int base = state * ALPHABET_SIZE;
+                for (int c = 0; c < ALPHABET_SIZE; c++) {
+                    trie[base + c] = trie[base + (fold[c] & 0xff)];
+                }
+            }
+        }
+
+        this.patternCount = patterns.length;
+        this.transitions = trie;
+        this.output = Arrays.copyOf(stateOutput, stateCount);
+        this.outputLink = links;
+        this.nextDuplicate = duplicates;
+    }
+
+    /**
+     * @return Count of patterns.
+     */
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    /**
+     * @return Initial state.
+     */
+    public int getInitialState() {
+        return 0;
+    }
+
+    /**
+     * Move automaton to next state.
+     *
+     * @param state Current state
+     * @param b Input byte
+     * @return Next state
+     */
+    public int next(int state, byte b) {
+        return transitions[state * ALPHABET_SIZE + (b & 0xff)];
+    }
+
+    /**
+     * @param state Automaton state
+     * @return index of pattern ending in this state or -1
+     */
+    public int getOutput(int state) {
+        return output[state];
+    }
+
+    /**
+     * @param state Automaton state
+     * @return next state with output in suffix chain or -1
+     */
+    public int getOutputLink(int state) {
+        return outputLink[state];
+    }
+
+    /**
+     * @param pattern Pattern index
+     * @return index of the next pattern equal to this one or -1
+     */
+    public int getNextDuplicate(int pattern) {
+        return nextDuplicate[pattern];
+    }
+
+    /**
+     * @param state Automaton state
+     * @return true if any pattern ends in this state (directly or in suffix chain)
+     */
+    public boolean hasOutput(int state) {
+        return output[state] != NONE || outputLink[state] != NONE;
+    }
+}
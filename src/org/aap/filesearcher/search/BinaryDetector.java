@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.search;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary file heuristic applied to the first block of file: block with NUL byte is binary unless it starts with
+ * UTF-16 byte order mark (UTF-16 text has NULs in every other byte).
+ */
+public final class BinaryDetector {
+    private BinaryDetector() {
+    }
+
+    /**
+     * @param buffer Buffer
+     * @param offset Start of the block (beginning of the file)
+     * @param length Length of the block
+     * @return true if block looks like binary data
+     */
+    public static boolean looksBinary(byte[] buffer, int offset, int length) {
+        if (length >= 2 && isUtf16Bom(buffer[offset], buffer[offset + 1])) {
+            return false;
+        }
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (buffer[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param buffer Buffer
+     * @param offset Start of the block (beginning of the file)
+     * @param length Length of the block
+     * @return true if block looks like binary data
+     */
+    public static boolean looksBinary(ByteBuffer buffer, int offset, int length) {
+        if (length >= 2 && isUtf16Bom(buffer.get(offset), buffer.get(offset + 1))) {
+            return false;
+        }
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (buffer.get(i) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isUtf16Bom(byte first, byte second) {
+        return (first == (byte) 0xFF && second == (byte) 0xFE) || (first == (byte) 0xFE && second == (byte) 0xFF);
+    }
+}
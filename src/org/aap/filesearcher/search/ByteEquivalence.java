@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.search;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.List;
+
+/**
+ * Byte equivalence classes for case-insensitive matching without decoding: each byte is mapped to the canonical
+ * (smallest) byte of its class, so pattern and text are compared by canonical bytes with one table lookup.
+ *
+ * <p>Classes are built from pattern characters: case variants of each character are encoded in each charset and
+ * bytes at the same position of equal-length encodings are joined. Any case variant of the pattern matches;
+ * false positives are possible when two pattern characters share a byte class (e.g. UTF-16 high byte of CJK
+ * character equal to an ASCII letter of the same pattern). Variants encoded with different length (e.g. 'İ' and 'i'
+ * in UTF-8) are not matched.
+ *
+ * <p>Classes are shared by all charsets, so bytes of non-ASCII characters of one charset would be joined with
+ * unrelated bytes of another one (false positives in every file). Thus several charsets are supported for ASCII
+ * patterns only, case variants of ASCII letters have the same byte positions in all supported charsets.
+ *
+ * <p>Instance is immutable and can be shared between threads.
+ */
+public final class ByteEquivalence {
+    private static final int ALPHABET_SIZE = 256;
+    private final byte[] table;
+
+    private ByteEquivalence(byte[] table) {
+        this.table = table;
+    }
+
+    /**
+     * Build case-insensitive classes for patterns.
+     *
+     * @param patterns Patterns
+     * @param charsets Charsets patterns are encoded with
+     * @return Equivalence classes
+     * @throws IllegalArgumentException if several charsets are given and a pattern is not ASCII
+     */
+    public static ByteEquivalence caseInsensitive(List<String> patterns, List<Charset> charsets)
+            throws IllegalArgumentException {
+        if (charsets.size() > 1) {
+            for (String pattern : patterns) {
+                for (int i = 0; i < pattern.length(); i++) {
+                    if (pattern.charAt(i) > 0x7f) {
+                        throw new IllegalArgumentException(
+                                "Case-insensitive search in several encodings supports ASCII patterns only");
+                    }
+                }
+            }
+        }
+        final int[] parent = new int[ALPHABET_SIZE];
+        for (int i = 0; i < ALPHABET_SIZE; i++) {
+            parent[i] = i;
+        }
+
+        for (String pattern : patterns) {
+            for (int i = 0; i < pattern.length(); ) {
+                final int codePoint = pattern.codePointAt(i);
+                i += Character.charCount(codePoint);
+
+                final int upperCase = Character.toUpperCase(codePoint);
+                final int[] variants = {Character.toLowerCase(codePoint), upperCase, Character.toTitleCase(codePoint),
+                        Character.toLowerCase(upperCase)};
+                for (Charset charset : charsets) {
+                    final byte[] encoded = encode(codePoint, charset);
+                    if (encoded == null) {
+                        continue;
+                    }
+                    for (int variant : variants) {
+                        final byte[] variantEncoded = variant != codePoint ? encode(variant, charset) : null;
+                        if (variantEncoded == null || variantEncoded.length != encoded.length) {
+                            continue;
+                        }
+                        for (int k = 0; k < encoded.length; k++) {
+                            union(parent, encoded[k] & 0xff, variantEncoded[k] & 0xff);
+                        }
+                    }
+                }
+            }
+        }
+
+        final byte[] table = new byte[ALPHABET_SIZE];
+        for (int i = 0; i < ALPHABET_SIZE; i++) {
+            table[i] = (byte) find(parent, i);
+        }
+        return new ByteEquivalence(table);
+    }
+
+    /**
+     * @return Copy of the table: canonical byte for each byte value (index is unsigned byte)
+     */
+    public byte[] getTable() {
+        return table.clone();
+    }
+
+    /**
+     * @param b Byte
+     * @return Canonical byte of the class
+     */
+    public byte canonical(byte b) {
+        return table[b & 0xff];
+    }
+
+    /**
+     * @param bytes Bytes
+     * @return New array of canonical bytes
+     */
+    public byte[] canonical(byte[] bytes) {
+        final byte[] result = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            result[i] = table[bytes[i] & 0xff];
+        }
+        return result;
+    }
+
+    private static byte[] encode(int codePoint, Charset charset) {
+        final String s = new String(Character.toChars(codePoint));
+        final CharsetEncoder encoder = charset.newEncoder();
+        return encoder.canEncode(s) ? s.getBytes(charset) : null;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        final int rootA = find(parent, a);
+        final int rootB = find(parent, b);
+        // Smallest byte is the root, so canonical form of ASCII letters is upper case
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+        } else if (rootB < rootA) {
+            parent[rootA] = rootB;
+        }
+    }
+}
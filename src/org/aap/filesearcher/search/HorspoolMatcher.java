@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.search;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Boyer–Moore–Horspool substring pattern matcher.
+ * Complexity: O(n/m) in average case, O(nm) in worst case,
+ *  where m - length of substring,
+ *  n - length of the searchable text.
+ *
+ * <p>With {@link ByteEquivalence} bytes are compared by canonical bytes, shift table is expanded to all bytes of
+ * each class, so skipping costs nothing extra.
+ *
+ * <p>Matcher is immutable and can be shared between threads.
+ */
+public class HorspoolMatcher {
+    private final byte[] patternBytes;
+    private final int[] badCharShift;
+    /** Canonical byte for each byte or null for exact matching */
+    private final byte[] foldTable;
+
+    public HorspoolMatcher(byte[] patternBytes) throws IllegalArgumentException {
+        this(patternBytes, null);
+    }
+
+    /**
+     * @param patternBytes Pattern
+     * @param equivalence Byte equivalence classes (null - exact matching)
+     * @throws IllegalArgumentException if pattern is empty
+     */
+    public HorspoolMatcher(byte[] patternBytes, ByteEquivalence equivalence) throws IllegalArgumentException {
+        if (patternBytes.length == 0) {
+            throw new IllegalArgumentException("Pattern shall not be empty");
+        }
+        this.foldTable = equivalence != null ? equivalence.getTable() : null;
+        patternBytes = equivalence != null ? equivalence.canonical(patternBytes) : patternBytes;
+        this.patternBytes = patternBytes;
+        this.badCharShift = new int[256];
+
+        // Pre-compute
+        final int last = patternBytes.length - 1;
+        for (int i = 0; i < badCharShift.length; i++) {
+            badCharShift[i] = patternBytes.length;
+        }
+        for (int i = 0; i < last; i++) {
+            badCharShift[patternBytes[i] & 0xff] = last - i;
+        }
+        if (foldTable != null) {
+            for (int i = 0; i < badCharShift.length; i++) {
+                badCharShift[i] = badCharShift[foldTable[i] & 0xff];
+            }
+        }
+    }
+
+    public int getPatternLength() {
+        return patternBytes.length;
+    }
+
+    /**
+     * Find first occurrence of the pattern in array region.
+     *
+     * @param data Searchable data
+     * @param from Start index (inclusive)
+     * @param to End index (exclusive)
+     * @return index of first occurrence or -1 if pattern not found
+     */
+    public int indexOf(byte[] data, int from, int to) {
+        if (foldTable != null) {
+            return indexOfFolded(data, from, to);
+        }
+        final int last = patternBytes.length - 1;
+        final byte lastByte = patternBytes[last];
+        int i = from;
+        while (i <= to - patternBytes.length) {
+            final byte b = data[i + last];
+            if (b == lastByte) {
+                int j = last - 1;
+                while (j >= 0 && data[i + j] == patternBytes[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            i += badCharShift[b & 0xff];
+        }
+        return -1;
+    }
+
+    /**
+     * Find first occurrence of the pattern in buffer region (absolute positions, buffer position is not changed).
+     *
+     * @param data Searchable data
+     * @param from Start index (inclusive)
+     * @param to End index (exclusive)
+     * @return index of first occurrence or -1 if pattern not found
+     */
+    public int indexOf(ByteBuffer data, int from, int to) {
+        if (foldTable != null) {
+            return indexOfFolded(data, from, to);
+        }
+        final int last = patternBytes.length - 1;
+        final byte lastByte = patternBytes[last];
+        int i = from;
+        while (i <= to - patternBytes.length) {
+            final byte b = data.get(i + last);
+            if (b == lastByte) {
+                int j = last - 1;
+                while (j >= 0 && data.get(i + j) == patternBytes[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            i += badCharShift[b & 0xff];
+        }
+        return -1;
+    }
+
+    private int indexOfFolded(byte[] data, int from, int to) {
+        final byte[] fold = foldTable;
+        final int last = patternBytes.length - 1;
+        final byte lastByte = patternBytes[last];
+        int i = from;
+        while (i <= to - patternBytes.length) {
+            final byte b = data[i + last];
+            if (fold[b & 0xff] == lastByte) {
+                int j = last - 1;
+                while (j >= 0 && fold[data[i + j] & 0xff] == patternBytes[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            i += badCharShift[b & 0xff];
+        }
+        return -1;
+    }
+
+    private int indexOfFolded(ByteBuffer data, int from, int to) {
+        final byte[] fold = foldTable;
+        final int last = patternBytes.length - 1;
+        final byte lastByte = patternBytes[last];
+        int i = from;
+        while (i <= to - patternBytes.length) {
+            final byte b = data.get(i + last);
+            if (fold[b & 0xff] == lastByte) {
+                int j = last - 1;
+                while (j >= 0 && fold[data.get(i + j) & 0xff] == patternBytes[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            i += badCharShift[b & 0xff];
+        }
+        return -1;
+    }
+}
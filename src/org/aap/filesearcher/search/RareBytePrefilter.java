@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.search;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Prefilter which finds candidate positions of the rarest pattern byte eight bytes at a time (SWAR).
+ *
+ * <p>Rarest byte is chosen by static frequency rank of bytes in text and source code. Buffer is read by {@code long}
+ * words, each word is XOR-ed with the byte repeated eight times and zero bytes of the result are found with
+ * carry-free bit trick, so there is one branch per eight bytes instead of one per byte. Matchers verify the whole
+ * pattern only at candidate positions.
+ *
+ * <p>With {@link ByteEquivalence} all bytes of the rare byte class (up to {@link #MAX_CLASS_SIZE}) are searched.
+ * Prefilter is immutable and can be shared between threads.
+ */
+public final class RareBytePrefilter {
+    /** Max count of bytes searched at once */
+    public static final int MAX_CLASS_SIZE = 4;
+    /** Bytes from the most to the least frequent, bytes which are not listed are rarer than all listed */
+    private static final String FREQUENT_BYTES = " etaoinsrlhdcu\n\tmpfgywb.,v=_;()k\"'/-:0x1ETSARINOLC2{}\r*jDM>3<P#q5F48BH" +
+            "69U7[]&+GWzVX!|%$?YKJQZ@\\^~`";
+    private static final int[] RANK = new int[256];
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    static {
+        for (int i = 0; i < RANK.length; i++) {
+            // Unlisted bytes: control characters and non-ASCII are rare, NUL is frequent in binary files
+            RANK[i] = i == 0 ? 0 : FREQUENT_BYTES.length() + 1;
+        }
+        for (int i = 0; i < FREQUENT_BYTES.length(); i++) {
+            RANK[FREQUENT_BYTES.charAt(i)] = i + 1;
+        }
+    }
+
+    private final int offset;
+    private final byte[] bytes;
+    private final long[] broadcasts;
+
+    private RareBytePrefilter(int offset, byte[] bytes) {
+        this.offset = offset;
+        this.bytes = bytes;
+        this.broadcasts = new long[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            broadcasts[i] = (bytes[i] & 0xffL) * ONES;
+        }
+    }
+
+    /**
+     * Create prefilter for the rarest byte of the pattern.
+     *
+     * @param patternBytes Pattern (canonical bytes if fold table is set)
+     * @param foldTable Canonical byte for each byte or null for exact matching
+     * @return Prefilter
+     * @throws IllegalArgumentException if pattern is empty
+     */
+    public static RareBytePrefilter forPattern(byte[] patternBytes, byte[] foldTable) throws IllegalArgumentException {
+        if (patternBytes.length == 0) {
+            throw new IllegalArgumentException("Pattern shall not be empty");
+        }
+        int bestOffset = -1;
+        byte[] bestBytes = null;
+        int bestRank = -1;
+        for (int i = 0; i < patternBytes.length; i++) {
+            final byte[] candidates = classOf(patternBytes[i], foldTable);
+            if (candidates.length > MAX_CLASS_SIZE) {
+                continue;
+            }
+            // Class is as frequent as its most frequent byte
+            int rank = Integer.MAX_VALUE;
+            for (byte b : candidates) {
+                rank = Math.min(rank, RANK[b & 0xff]);
+            }
+            if (rank > bestRank) {
+                bestRank = rank;
+                bestOffset = i;
+                bestBytes = candidates;
+            }
+        }
+        if (bestBytes == null) {
+            // Every class is too big, fall back to the first byte without folding
+            bestOffset = 0;
+            bestBytes = new byte[] {patternBytes[0]};
+        }
+        return new RareBytePrefilter(bestOffset, bestBytes);
+    }
+
+    private static byte[] classOf(byte canonical, byte[] foldTable) {
+        if (foldTable == null) {
+            return new byte[] {canonical};
+        }
+        int count = 0;
+        final byte[] members = new byte[256];
+        for (int b = 0; b < 256; b++) {
+            if (foldTable[b] == canonical) {
+                members[count++] = (byte) b;
+            }
+        }
+        final byte[] result = new byte[count];
+        System.arraycopy(members, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * @return Offset of the rare byte in the pattern
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return Rare bytes (class of the rare pattern byte)
+     */
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    /**
+     * Find next position of the rare byte (absolute positions, buffer position is not changed).
+     *
+     * @param data Searchable data
+     * @param from Start index (inclusive)
+     * @param to End index (exclusive)
+     * @return index of the first rare byte or -1 if there is no rare byte in the region
+     */
+    public int indexOf(ByteBuffer data, int from, int to) {
+        final boolean littleEndian = data.order() == ByteOrder.LITTLE_ENDIAN;
+        int i = from;
+        for (; i <= to - 8; i += 8) {
+            final long word = data.getLong(i);
+            long found = 0;
+            for (long broadcast : broadcasts) {
+                found |= zeroBytes(word ^ broadcast);
+            }
+            if (found != 0) {
+                return i + ((littleEndian ? Long.numberOfTrailingZeros(found) : Long.numberOfLeadingZeros(found)) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            final byte b = data.get(i);
+            for (byte rare : bytes) {
+                if (b == rare) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Word with high bit set in each byte which is zero in {@code x} (exact, no false positives)
+     */
+    private static long zeroBytes(long x) {
+        final long y = ((x & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | x;
+        return ~(y | LOW_SEVEN_BITS);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.search;
+
+/**
+ * Extraction of literal which is required in every match of regular expression ({@link java.util.regex.Pattern}
+ * syntax), so text can be prefiltered by fast literal search.
+ *
+ * <p>Extraction is conservative: only top-level sequence of plain characters is considered, groups, character
+ * classes and escapes other than quoted punctuation break the literal. Expressions with top-level alternation or
+ * inline flags have no required literal.
+ */
+public final class RegexLiterals {
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    private RegexLiterals() {
+    }
+
+    /**
+     * @param regex Regular expression
+     * @return Longest literal required in every match or null if there is no such literal
+     */
+    public static String requiredLiteral(String regex) {
+        String best = null;
+        final StringBuilder current = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            int next = i + 1;
+            boolean literal = false;
+            char literalChar = c;
+
+            if (c == '\\') {
+                if (next >= regex.length()) {
+                    return null;
+                }
+                final char escaped = regex.charAt(next);
+                next++;
+                if (METACHARACTERS.indexOf(escaped) >= 0 || "-/#&~!\"'<>=,:;@%` ".indexOf(escaped) >= 0) {
+                    literal = true;
+                    literalChar = escaped;
+                } else if ("xu0cpPkN".indexOf(escaped) >= 0 || Character.isDigit(escaped)) {
+                    // Escapes with arguments (character codes, properties, back references)
+                    return null;
+                } else if (escaped == 'Q') {
+                    // Quoted sequence: skip it (conservatively treated as break)
+                    final int end = regex.indexOf("\\E", next);
+                    next = end >= 0 ? end + 2 : regex.length();
+                }
+            } else if (c == '|') {
+                return null;
+            } else if (c == '(') {
+                if (next < regex.length() && regex.charAt(next) == '?'
+                        && !(next + 1 < regex.length() && regex.charAt(next + 1) == ':')) {
+                    // Inline flags, lookaround or named group
+                    return null;
+                }
+                next = skipGroup(regex, i);
+                if (next < 0) {
+                    return null;
+                }
+            } else if (c == '[') {
+                next = skipCharacterClass(regex, i);
+                if (next < 0) {
+                    return null;
+                }
+            } else if (METACHARACTERS.indexOf(c) < 0) {
+                literal = true;
+            }
+
+            // Quantifier applies to the last atom
+            int quantifierMin = 1;
+            boolean quantified = false;
+            if (next < regex.length()) {
+                final char q = regex.charAt(next);
+                if (q == '?' || q == '*') {
+                    quantifierMin = 0;
+                    quantified = true;
+                    next++;
+                } else if (q == '+') {
+                    quantified = true;
+                    next++;
+                } else if (q == '{') {
+                    final int end = regex.indexOf('}', next);
+                    if (end < 0) {
+                        return null;
+                    }
+                    final String bounds = regex.substring(next + 1, end);
+                    final int comma = bounds.indexOf(',');
+                    try {
+                        quantifierMin = Integer.parseInt((comma >= 0 ? bounds.substring(0, comma) : bounds).trim());
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                    quantified = true;
+                    next = end + 1;
+                }
+                // Lazy or possessive quantifier
+                if (quantified && next < regex.length() && (regex.charAt(next) == '?' || regex.charAt(next) == '+')) {
+                    next++;
+                }
+            }
+
+            if (literal && quantifierMin > 0) {
+                current.append(literalChar);
+            }
+            if (!literal || quantified) {
+                best = longest(best, current);
+                current.setLength(0);
+            }
+            i = next;
+        }
+        best = longest(best, current);
+        return best;
+    }
+
+    private static String longest(String best, StringBuilder current) {
+        if (current.length() > 0 && (best == null || current.length() > best.length())) {
+            return current.toString();
+        }
+        return best;
+    }
+
+    /**
+     * @return Index after closing parenthesis or -1 if group is not closed
+     */
+    private static int skipGroup(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                i = skipCharacterClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return Index after closing bracket or -1 if class is not closed
+     */
+    private static int skipCharacterClass(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+                // ']' right after opening bracket (or negation) is a literal
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+                    i++;
+                }
+            } else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+}
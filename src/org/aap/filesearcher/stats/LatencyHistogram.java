@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds with log-linear buckets (HDR-style): each power of two range is split into
+ * {@link #SUB_BUCKETS} linear buckets, so relative error of percentiles is about 6%, values up to ~18 minutes are
+ * distinguished (greater ones fall into the last bucket).
+ *
+ * <p>Recording is lock-free: counts are striped by thread like {@link StripedCounter}, stripes are merged on
+ * {@link #snapshot()}.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    /** Per stripe: buckets, then count, sum and max, padded to cache line */
+    private static final int COUNT = BUCKETS;
+    private static final int SUM = BUCKETS + 1;
+    private static final int MAX = BUCKETS + 2;
+    private static final int STRIPE_SIZE = BUCKETS + 16;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    public LatencyHistogram() {
+        this(StripedCounter.defaultStripesCount());
+    }
+
+    /**
+     * @param stripes Count of stripes (rounded up to power of two)
+     */
+    public LatencyHistogram(int stripes) {
+        final int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.cells = new AtomicLongArray(size * STRIPE_SIZE);
+        this.mask = size - 1;
+    }
+
+    /**
+     * @param nanos Duration in nanoseconds (negative values are recorded as zero)
+     */
+    public void record(long nanos) {
+        final long value = Math.max(0, nanos);
+        final int base = StripedCounter.stripeIndex(mask) * STRIPE_SIZE;
+        cells.incrementAndGet(base + bucketIndex(value));
+        cells.incrementAndGet(base + COUNT);
+        cells.addAndGet(base + SUM, value);
+        long max;
+        while (value > (max = cells.get(base + MAX)) && !cells.compareAndSet(base + MAX, max, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * @return Sum of recorded durations in nanoseconds.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int base = 0; base < cells.length(); base += STRIPE_SIZE) {
+            sum += cells.get(base + SUM);
+        }
+        return sum;
+    }
+
+    /**
+     * @return Merged state of all stripes.
+     */
+    public HistogramSnapshot snapshot() {
+        final long[] buckets = new long[BUCKETS];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        for (int base = 0; base < cells.length(); base += STRIPE_SIZE) {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] += cells.get(base + i);
+            }
+            count += cells.get(base + COUNT);
+            sum += cells.get(base + SUM);
+            max = Math.max(max, cells.get(base + MAX));
+        }
+        return new HistogramSnapshot(count, (count > 0 ? sum / count : 0) / 1000,
+                percentile(buckets, count, 0.5, max) / 1000, percentile(buckets, count, 0.9, max) / 1000,
+                percentile(buckets, count, 0.99, max) / 1000, max / 1000);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return Highest value which falls into the bucket.
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    private static long percentile(long[] buckets, long count, double fraction, long max) {
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(count * fraction));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.stats;
+
+import org.aap.filesearcher.executor.TaskQueue;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Search statistics collected by listing and executors.
+ *
+ * <p>Metrics are disabled unless installed with {@link #install()} or {@link #register()}: instrumented code checks {@link #get()} (or
+ * {@link #startScanTimer()}) for null and doesn't even read the clock then. All counters are striped per thread.
+ */
+public class SearchMetrics implements SearchMetricsMXBean {
+    public static final String OBJECT_NAME = "org.aap.filesearcher:type=SearchMetrics";
+    private static final long MIN_RATE_INTERVAL = 1000000000L;
+    private static volatile SearchMetrics active;
+
+    private final StripedCounter filesProcessed = new StripedCounter();
+    private final StripedCounter bytesRead = new StripedCounter();
+    private final StripedCounter openFiles = new StripedCounter();
+    private final LatencyHistogram listingTime = new LatencyHistogram();
+    private final LatencyHistogram openTime = new LatencyHistogram();
+    private final LatencyHistogram readTime = new LatencyHistogram();
+    private final LatencyHistogram matchTime = new LatencyHistogram();
+    private final ThreadLocal<ScanTimer> scanTimers = new ThreadLocal<ScanTimer>();
+    private volatile TaskQueue<?> taskQueue;
+
+    // Rate sampling, guarded by this
+    private long sampleTime = System.nanoTime();
+    private long sampleFiles;
+    private long sampleBytes;
+    private double filesPerSecond;
+    private double bytesPerSecond;
+
+    /**
+     * @return Installed metrics or null if metrics are disabled.
+     */
+    public static SearchMetrics get() {
+        return active;
+    }
+
+    /**
+     * Create metrics, register them in platform MBean server and install for instrumented code.
+     *
+     * @return New metrics
+     * @throws JMException if MBean can't be registered
+     */
+    public static synchronized SearchMetrics register() throws JMException {
+        final SearchMetrics metrics = new SearchMetrics();
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        active = metrics;
+        return metrics;
+    }
+
+    /**
+     * Install metrics for instrumented code without registration in MBean server (if not installed yet).
+     *
+     * @return Installed metrics
+     */
+    public static synchronized SearchMetrics install() {
+        if (active == null) {
+            active = new SearchMetrics();
+        }
+        return active;
+    }
+
+    /**
+     * Start timing of file scan in current thread.
+     *
+     * @return Timer of current thread or null if metrics are disabled
+     */
+    public static ScanTimer startScanTimer() {
+        final SearchMetrics metrics = active;
+        if (metrics == null) {
+            return null;
+        }
+        ScanTimer timer = metrics.scanTimers.get();
+        if (timer == null) {
+            timer = new ScanTimer(metrics);
+            metrics.scanTimers.set(timer);
+        }
+        timer.start();
+        return timer;
+    }
+
+    /**
+     * @param taskQueue Task queue which depth is reported
+     */
+    public void setTaskQueue(TaskQueue<?> taskQueue) {
+        this.taskQueue = taskQueue;
+    }
+
+    public void recordListing(long nanos) {
+        listingTime.record(nanos);
+    }
+
+    @Override
+    public long getFilesProcessed() {
+        return filesProcessed.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public synchronized double getFilesPerSecond() {
+        sampleRates();
+        return filesPerSecond;
+    }
+
+    @Override
+    public synchronized double getBytesPerSecond() {
+        sampleRates();
+        return bytesPerSecond;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        final TaskQueue<?> queue = taskQueue;
+        return queue != null ? queue.size() : 0;
+    }
+
+    @Override
+    public long getOpenFiles() {
+        return openFiles.sum();
+    }
+
+    /**
+     * @return Total time of reads in nanoseconds.
+     */
+    public long getReadNanos() {
+        return readTime.sum();
+    }
+
+    /**
+     * @return Total time of matching in nanoseconds.
+     */
+    public long getMatchNanos() {
+        return matchTime.sum();
+    }
+
+    @Override
+    public HistogramSnapshot getListingTime() {
+        return listingTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getOpenTime() {
+        return openTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getReadTime() {
+        return readTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getMatchTime() {
+        return matchTime.snapshot();
+    }
+
+    private void sampleRates() {
+        final long now = System.nanoTime();
+        final long elapsed = now - sampleTime;
+        if (elapsed < MIN_RATE_INTERVAL) {
+            return;
+        }
+        final long files = filesProcessed.sum();
+        final long bytes = bytesRead.sum();
+        filesPerSecond = (files - sampleFiles) * 1e9 / elapsed;
+        bytesPerSecond = (bytes - sampleBytes) * 1e9 / elapsed;
+        sampleTime = now;
+        sampleFiles = files;
+        sampleBytes = bytes;
+    }
+
+    /**
+     * Per-thread timer of file scan phases: time from the previous mark is attributed to the phase which is
+     * completed by the call. Usage: {@link #opened()} after file is opened, {@link #read(int)} after each read,
+     * {@link #matched()} after each block is matched and {@link #done()} when the file is closed.
+     */
+    public static class ScanTimer {
+        private final SearchMetrics metrics;
+        private long mark;
+        private long openNanos;
+        private long readNanos;
+        private long matchNanos;
+        private long bytes;
+        private boolean opened;
+        private boolean reading;
+
+        ScanTimer(SearchMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        void start() {
+            mark = System.nanoTime();
+            openNanos = readNanos = matchNanos = bytes = 0;
+            opened = reading = false;
+        }
+
+        public void opened() {
+            final long now = System.nanoTime();
+            openNanos = now - mark;
+            mark = now;
+            opened = true;
+            metrics.openFiles.increment();
+        }
+
+        public void read(int bytesRead) {
+            final long now = System.nanoTime();
+            readNanos += now - mark;
+            mark = now;
+            if (bytesRead > 0) {
+                bytes += bytesRead;
+            }
+            reading = true;
+        }
+
+        public void matched() {
+            final long now = System.nanoTime();
+            matchNanos += now - mark;
+            mark = now;
+            reading = false;
+        }
+
+        public void done() {
+            if (reading) {
+                // Match was interrupted by found pattern
+                matched();
+            }
+            if (opened) {
+                metrics.openFiles.decrement();
+                metrics.openTime.record(openNanos);
+                metrics.readTime.record(readNanos);
+                metrics.matchTime.record(matchNanos);
+                metrics.bytesRead.add(bytes);
+                metrics.filesProcessed.increment();
+                opened = false;
+            }
+        }
+    }
+}
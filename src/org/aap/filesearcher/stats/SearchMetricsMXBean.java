@@ -0,0 +1,40 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.stats;
+
+/**
+ * Live search statistics exposed over JMX.
+ *
+ * <p>Rates are calculated over interval between two consecutive reads of the attribute (but not shorter than one
+ * second), durations are per file (listing - per directory).
+ */
+public interface SearchMetricsMXBean {
+    long getFilesProcessed();
+
+    long getBytesRead();
+
+    double getFilesPerSecond();
+
+    double getBytesPerSecond();
+
+    /**
+     * @return Count of tasks waiting in the task queue.
+     */
+    int getQueueDepth();
+
+    long getOpenFiles();
+
+    /**
+     * @return Time of directory listing (excluding hand-off of found files to executors).
+     */
+    HistogramSnapshot getListingTime();
+
+    HistogramSnapshot getOpenTime();
+
+    HistogramSnapshot getReadTime();
+
+    HistogramSnapshot getMatchTime();
+}
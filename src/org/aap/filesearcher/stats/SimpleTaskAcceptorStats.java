@@ -7,26 +7,27 @@ package org.aap.filesearcher.stats;
 
 import org.aap.filesearcher.executor.TaskAcceptor;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Utility decorator class to calculate simple statistics.
- * Not thread-safe.
+ * Task counter is thread-safe (listing may push tasks from several threads).
  */
 public class SimpleTaskAcceptorStats<T> implements TaskAcceptor<T> {
     private final TaskAcceptor<T> taskAcceptor;
-    private long taskCount;
+    private final AtomicLong taskCount = new AtomicLong();
     private long constructionTime;
     private long totalWaitTime;
 
     public SimpleTaskAcceptorStats(TaskAcceptor<T> taskAcceptor) {
         this.taskAcceptor = taskAcceptor;
-        taskCount = 0;
         totalWaitTime = 0;
         constructionTime = System.currentTimeMillis();
     }
 
     @Override
     public void push(T task) throws IllegalArgumentException, InterruptedException {
-        taskCount++;
+        taskCount.incrementAndGet();
 
         // final long startTime = System.currentTimeMillis();
         taskAcceptor.push(task);
@@ -39,7 +40,7 @@ public class SimpleTaskAcceptorStats<T> implements TaskAcceptor<T> {
     }
 
     public long getTaskCount() {
-        return taskCount;
+        return taskCount.get();
     }
 
     public long getConstructionTime() {
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter striped by thread id: each stripe is in its own cache line, so threads updating the counter don't contend.
+ * Sum is not atomic snapshot, which is fine for monitoring.
+ */
+public class StripedCounter {
+    /** Distance between stripes in longs (128 bytes, two cache lines for adjacent line prefetch) */
+    private static final int STRIDE = 16;
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    public StripedCounter() {
+        this(defaultStripesCount());
+    }
+
+    /**
+     * @param stripes Count of stripes (rounded up to power of two)
+     */
+    public StripedCounter(int stripes) {
+        final int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.cells = new AtomicLongArray(size * STRIDE);
+        this.mask = size - 1;
+    }
+
+    public void add(long delta) {
+        cells.addAndGet(stripeIndex(mask) * STRIDE, delta);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void decrement() {
+        add(-1);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += STRIDE) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * @param mask Stripes count - 1
+     * @return Stripe of current thread
+     */
+    static int stripeIndex(int mask) {
+        final long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & mask;
+    }
+
+    /**
+     * @return About twice as many stripes as processors.
+     */
+    static int defaultStripesCount() {
+        return 2 * Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.util;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of scratch buffers shared by executor threads.
+ *
+ * <p>Buffer is borrowed for one task and returned in {@code finally}. New buffer is allocated only if all pooled
+ * buffers are borrowed, so count of buffers is bounded by count of concurrently executed tasks (executor threads or
+ * open files limit of virtual-thread mode) and doesn't depend on count of files or created threads. Unlike
+ * thread-local buffers it works for virtual threads, which are created per task. Borrowing and returning don't
+ * allocate.
+ *
+ * @param <T> Buffer type
+ */
+public abstract class BufferPool<T> {
+    private final ArrayDeque<T> buffers = new ArrayDeque<T>();
+
+    /**
+     * @return Pooled buffer or new buffer if all buffers are borrowed
+     */
+    public T acquire() {
+        final T buffer;
+        synchronized (buffers) {
+            buffer = buffers.pollLast();
+        }
+        return buffer != null ? buffer : create();
+    }
+
+    /**
+     * @param buffer Buffer taken by {@link #acquire()}
+     */
+    public void release(T buffer) {
+        synchronized (buffers) {
+            buffers.addLast(buffer);
+        }
+    }
+
+    /**
+     * @return New buffer
+     */
+    protected abstract T create();
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.util;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Explicit release of memory-mapped regions.
+ *
+ * <p>JVM unmaps {@link MappedByteBuffer} only when buffer is garbage collected, so scanning tens of thousands of
+ * files can keep a lot of address space and file descriptors mapped. This helper uses
+ * {@code sun.misc.Unsafe.invokeCleaner} (if available) to unmap buffer immediately. If it isn't available
+ * unmapping is left to garbage collector.
+ */
+public final class MappedBufferCleaner {
+    private final static Logger logger = Logger.getLogger(MappedBufferCleaner.class);
+    private final static Object unsafe;
+    private final static Method invokeCleaner;
+
+    static {
+        Object theUnsafe = null;
+        Method cleaner = null;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            theUnsafe = field.get(null);
+            cleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception e) {
+            logger.info("Explicit unmapping is not supported, mapped buffers will be released by GC");
+            theUnsafe = null;
+            cleaner = null;
+        }
+        unsafe = theUnsafe;
+        invokeCleaner = cleaner;
+    }
+
+    private MappedBufferCleaner() {
+    }
+
+    /**
+     * Unmap buffer. Buffer shall not be used after this call.
+     *
+     * @param buffer Mapped buffer (can be null).
+     */
+    public static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null || invokeCleaner == null) {
+            return;
+        }
+
+        try {
+            invokeCleaner.invoke(unsafe, buffer);
+        } catch (Exception e) {
+            logger.debug("Unable to unmap buffer", e);
+        }
+    }
+}
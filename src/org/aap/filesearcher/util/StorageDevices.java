@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012 Andrew Porokhin. All rights reserved.
+ * Licensed under the MIT license: http://www.opensource.org/licenses/mit-license.php
+ */
+
+package org.aap.filesearcher.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+
+/**
+ * Identification of storage device of files, so I/O can be scheduled per device.
+ */
+public final class StorageDevices {
+    private StorageDevices() {
+    }
+
+    /**
+     * Get device of the file: device number ({@code unix:dev} attribute) on POSIX file systems, {@link FileStore}
+     * otherwise. Devices are compared with {@code equals}.
+     *
+     * @param file File or directory
+     * @return Device or null if it can't be read
+     */
+    public static Object deviceOf(File file) {
+        try {
+            return Files.getAttribute(file.toPath(), "unix:dev");
+        } catch (UnsupportedOperationException e) {
+            /* not a POSIX file system */
+        } catch (IllegalArgumentException e) {
+            /* not a POSIX file system */
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            return Files.getFileStore(file.toPath());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param file File on the device
+     * @return Human-readable device description (mount point and file system type)
+     */
+    public static String describe(File file) {
+        try {
+            final FileStore store = Files.getFileStore(file.toPath());
+            return store.toString() + " " + store.type();
+        } catch (IOException e) {
+            return "unknown device";
+        }
+    }
+}